@@ -0,0 +1,308 @@
+package project;
+
+import lombok.Getter;
+import peersim.config.IllegalParameterException;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of the addresses of the nodes we heard of, used to send packets directly to their target instead of
+ * routing them. Once the cache is full, an entry is evicted for each new node following the configured policy. Entries
+ * are invalidated by the transport when it finds out a cached address does not lead to the expected node anymore.
+ * <p>
+ * The cache is looked up on every hop, so it is keyed on the raw longs of the ids: entries live in preallocated slots
+ * found through an open addressing index and no object is built to look up or store an address.
+ */
+public abstract class AddressCache {
+    public static final String POLICY_LRU = "lru";
+    public static final String POLICY_CLOCK = "clock";
+
+    /**
+     * Returned by {@link #get(long, long)} when the address is not cached
+     */
+    public static final int MISSING = -1;
+
+    /**
+     * Marks an empty bucket of the index
+     */
+    private static final int FREE = -1;
+
+    @Getter
+    protected final int capacity;
+    @Getter
+    private long hits = 0;
+    @Getter
+    private long misses = 0;
+    @Getter
+    private long evictions = 0;
+    @Getter
+    private long invalidations = 0;
+    private int size = 0;
+
+    private final long[] highs;
+    private final long[] lows;
+    private final int[] addresses;
+
+    /**
+     * Stack of the slots that hold no address
+     */
+    private final int[] freeSlots;
+    private int freeCount;
+
+    /**
+     * Slot of the entries by hash of their id, linear probing, at most half full
+     */
+    private final int[] index;
+
+    protected AddressCache(int capacity) {
+        this.capacity = capacity;
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.addresses = new int[capacity];
+        this.freeSlots = new int[capacity];
+        this.index = new int[Integer.highestOneBit(Math.max(1, capacity) * 4 - 1)];
+        this.reset();
+    }
+
+    /**
+     * Create a cache from the transport configuration
+     * @param parameter the name of the policy parameter, for error reporting
+     * @param policy the eviction policy, {@value POLICY_LRU} or {@value POLICY_CLOCK}
+     * @param capacity the maximum number of addresses, 0 to disable the cache
+     * @return the cache
+     */
+    public static AddressCache create(String parameter, String policy, int capacity) {
+        if (POLICY_LRU.equals(policy)) return new Lru(capacity);
+        if (POLICY_CLOCK.equals(policy)) return new Clock(capacity);
+        throw new IllegalParameterException(parameter, "Unknown cache policy: " + policy);
+    }
+
+    /**
+     * Get the cached address of a node
+     * @param high the most significant bits of the id of the node
+     * @param low the least significant bits of the id of the node
+     * @return its address or {@link #MISSING}
+     */
+    public int get(long high, long low) {
+        if (this.capacity == 0) return MISSING;
+
+        int slot = this.find(high, low);
+        if (slot == FREE) {
+            this.misses++;
+            return MISSING;
+        }
+
+        this.hits++;
+        this.touched(slot);
+        return this.addresses[slot];
+    }
+
+    public void put(long high, long low, int address) {
+        if (this.capacity == 0) return;
+
+        int slot = this.find(high, low);
+        if (slot == FREE) {
+            if (this.size == this.capacity) {
+                this.unlink(this.victim());
+                this.evictions++;
+            }
+
+            slot = this.freeSlots[--this.freeCount];
+            this.highs[slot] = high;
+            this.lows[slot] = low;
+            this.size++;
+            this.link(slot);
+            this.stored(slot);
+        } else {
+            this.touched(slot);
+        }
+
+        this.addresses[slot] = address;
+    }
+
+    public void invalidate(long high, long low) {
+        if (this.capacity == 0) return;
+
+        int slot = this.find(high, low);
+        if (slot == FREE) return;
+
+        this.unlink(slot);
+        this.invalidations++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void clear() {
+        this.reset();
+        this.cleared();
+    }
+
+    /**
+     * Called when the address in a slot is used or refreshed
+     */
+    protected abstract void touched(int slot);
+
+    /**
+     * Called when a new address is stored in a slot
+     */
+    protected abstract void stored(int slot);
+
+    /**
+     * Called when the address in a slot is evicted or invalidated
+     */
+    protected abstract void removed(int slot);
+
+    protected abstract void cleared();
+
+    /**
+     * @return the slot to evict when the cache is full
+     */
+    protected abstract int victim();
+
+    private void reset() {
+        Arrays.fill(this.index, FREE);
+        // slots are handed out in order
+        for (int i = 0; i < this.capacity; i++) this.freeSlots[i] = this.capacity - 1 - i;
+        this.freeCount = this.capacity;
+        this.size = 0;
+    }
+
+    private int bucket(long high, long low) {
+        long hash = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (this.index.length - 1);
+    }
+
+    private int find(long high, long low) {
+        int mask = this.index.length - 1;
+        for (int bucket = this.bucket(high, low); this.index[bucket] != FREE; bucket = (bucket + 1) & mask) {
+            int slot = this.index[bucket];
+            if (this.highs[slot] == high && this.lows[slot] == low) return slot;
+        }
+        return FREE;
+    }
+
+    private void link(int slot) {
+        int mask = this.index.length - 1;
+        int bucket = this.bucket(this.highs[slot], this.lows[slot]);
+        while (this.index[bucket] != FREE) bucket = (bucket + 1) & mask;
+        this.index[bucket] = slot;
+    }
+
+    private void unlink(int slot) {
+        int mask = this.index.length - 1;
+        int bucket = this.bucket(this.highs[slot], this.lows[slot]);
+        while (this.index[bucket] != slot) bucket = (bucket + 1) & mask;
+
+        // shift back the following entries of the probe sequence so lookups do not stop at the hole
+        int hole = bucket;
+        for (int next = (hole + 1) & mask; this.index[next] != FREE; next = (next + 1) & mask) {
+            int moved = this.index[next];
+            int home = this.bucket(this.highs[moved], this.lows[moved]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.index[hole] = moved;
+                hole = next;
+            }
+        }
+        this.index[hole] = FREE;
+
+        this.freeSlots[this.freeCount++] = slot;
+        this.size--;
+        this.removed(slot);
+    }
+
+    /**
+     * Evicts the least recently used address, slots are chained from the most to the least recently used one
+     */
+    private static class Lru extends AddressCache {
+        private final int[] previous;
+        private final int[] next;
+        private int head = FREE;
+        private int tail = FREE;
+
+        private Lru(int capacity) {
+            super(capacity);
+            this.previous = new int[capacity];
+            this.next = new int[capacity];
+        }
+
+        @Override
+        protected void touched(int slot) {
+            if (slot == this.head) return;
+            this.removed(slot);
+            this.stored(slot);
+        }
+
+        @Override
+        protected void stored(int slot) {
+            this.previous[slot] = FREE;
+            this.next[slot] = this.head;
+            if (this.head != FREE) this.previous[this.head] = slot;
+            else this.tail = slot;
+            this.head = slot;
+        }
+
+        @Override
+        protected void removed(int slot) {
+            if (this.previous[slot] != FREE) this.next[this.previous[slot]] = this.next[slot];
+            else this.head = this.next[slot];
+            if (this.next[slot] != FREE) this.previous[this.next[slot]] = this.previous[slot];
+            else this.tail = this.previous[slot];
+        }
+
+        @Override
+        protected void cleared() {
+            this.head = FREE;
+            this.tail = FREE;
+        }
+
+        @Override
+        protected int victim() {
+            return this.tail;
+        }
+    }
+
+    /**
+     * Second chance approximation of LRU: a hand sweeps the slots, clearing the reference bit of the addresses used since
+     * its last pass and evicting the first address that was not used. Hits only set a bit instead of reordering a list.
+     */
+    private static class Clock extends AddressCache {
+        private final boolean[] referenced;
+        private int hand = 0;
+
+        private Clock(int capacity) {
+            super(capacity);
+            this.referenced = new boolean[capacity];
+        }
+
+        @Override
+        protected void touched(int slot) {
+            this.referenced[slot] = true;
+        }
+
+        @Override
+        protected void stored(int slot) {
+            this.referenced[slot] = false;
+        }
+
+        @Override
+        protected void removed(int slot) {}
+
+        @Override
+        protected void cleared() {}
+
+        @Override
+        protected int victim() {
+            // sweep until we find an address that has not been used since the last pass, the cache is full
+            while (this.referenced[this.hand]) {
+                this.referenced[this.hand] = false;
+                this.hand = (this.hand + 1) % this.capacity;
+            }
+
+            int victim = this.hand;
+            this.hand = (this.hand + 1) % this.capacity;
+            return victim;
+        }
+    }
+}
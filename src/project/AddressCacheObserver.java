@@ -0,0 +1,46 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.util.IncrementalStats;
+
+import static project.Utils.getRoutingEngine;
+import static project.Utils.getTransport;
+
+/**
+ * Report the efficiency of the address caches of the transports: how often a packet could be sent directly to its
+ * target, and how many addresses had to be evicted or invalidated.
+ */
+@Slf4j(topic = "Address Cache Observer")
+public class AddressCacheObserver implements Control {
+    public AddressCacheObserver(String prefix) {}
+
+    @Override
+    public boolean execute() {
+        long hits = 0, misses = 0, evictions = 0, invalidations = 0;
+        IncrementalStats sizes = new IncrementalStats();
+
+        for (int i = 0; i < Network.size(); i++) {
+            // only the ring transport caches addresses
+            if (!(getRoutingEngine(Network.get(i)) instanceof Transport)) return false;
+
+            AddressCache cache = getTransport(i).getAddressesCache();
+            hits += cache.getHits();
+            misses += cache.getMisses();
+            evictions += cache.getEvictions();
+            invalidations += cache.getInvalidations();
+            sizes.add(cache.size());
+        }
+
+        long lookups = hits + misses;
+        log.info(
+                "Address caches: {} hits, {} misses (hit ratio {}), {} evictions, {} invalidations",
+                hits, misses, String.format("%.3f", lookups == 0 ? 0 : (double) hits / lookups),
+                evictions, invalidations
+        );
+        log.info("Address cache sizes: mean={} max={}", String.format("%.2f", sizes.getAverage()), sizes.getMax());
+
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.config.Configuration;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.core.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static project.Utils.getRoutingEngine;
+
+/**
+ * Report the cost of the anti-entropy exchanges and how far the replicas are from each other. A replica is divergent
+ * when it misses its key or holds another value than the first node of the preference list holding a value, deleted
+ * and expired keys being missing from every replica. The writes dropped as stale and the concurrent versions merged by
+ * the nodes are reported along.
+ */
+@Slf4j(topic = "Anti-Entropy Observer")
+public class AntiEntropyObserver implements Control {
+    private final int hashTableProtocolId;
+
+    public AntiEntropyObserver(String prefix) {
+        this.hashTableProtocolId = Configuration.getPid(prefix + ".application");
+    }
+
+    @Override
+    public boolean execute() {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        if (placement.isEmpty()) return false;
+
+        long exchanges = 0, hashes = 0, entries = 0, repaired = 0, stale = 0, conflicts = 0;
+        Map<Object, List<Node>> holders = new HashMap<>();
+        for (int i = 0; i < Network.size(); i++) {
+            Node node = Network.get(i);
+            if (getRoutingEngine(node).isIdle()) continue;
+
+            HashTable table = this.getTable(node);
+            exchanges += table.getAntiEntropyExchanges();
+            hashes += table.getMerkleHashesSent();
+            entries += table.getRepairEntriesSent();
+            repaired += table.getRepairedKeys();
+            stale += table.getStaleWrites();
+            conflicts += table.getConflicts();
+            for (Object key : table.keys()) {
+                holders.computeIfAbsent(
+                        key, k -> placement.preferenceList(placement.position(k), table.getReplicationFactor())
+                );
+            }
+        }
+
+        long divergent = 0;
+        for (Map.Entry<Object, List<Node>> entry : holders.entrySet()) {
+            List<Object> values = new ArrayList<>();
+            for (Node holder : entry.getValue()) values.add(this.getTable(holder).getLocal(entry.getKey()));
+
+            // a deleted or expired key is missing from every replica
+            Object reference = values.stream().filter(Objects::nonNull).findFirst().orElse(null);
+            for (Object value : values) {
+                if (!Objects.equals(value, reference)) divergent++;
+            }
+        }
+
+        log.info(
+                "Anti-entropy: {} exchanges, {} hashes and {} entries sent, {} keys repaired",
+                exchanges, hashes, entries, repaired
+        );
+        log.info("Replicas: {} keys, {} replicas missing or stale", holders.size(), divergent);
+        log.info("Versions: {} stale writes dropped, {} concurrent versions merged", stale, conflicts);
+
+        return false;
+    }
+
+    private HashTable getTable(Node node) {
+        return (HashTable) node.getProtocol(this.hashTableProtocolId);
+    }
+}
@@ -0,0 +1,62 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter over the keys of the hash table. The {@code k} positions of a key are derived from its 128 bits hash on
+ * the placement ring by double hashing, so keys are only hashed once. The filter answers that a key is absent without
+ * false negatives, and that it may be present with a false positive rate depending on its size and its load.
+ */
+public class BloomFilter {
+    private final long[] bits;
+    private final int size;
+    private final int hashes;
+
+    /**
+     * @param size the number of bits of the filter
+     * @param hashes the number of positions of each key
+     */
+    public BloomFilter(int size, int hashes) {
+        this.bits = new long[(size + 63) / 64];
+        this.size = size;
+        this.hashes = hashes;
+    }
+
+    private BloomFilter(BloomFilter other) {
+        this.bits = Arrays.copyOf(other.bits, other.bits.length);
+        this.size = other.size;
+        this.hashes = other.hashes;
+    }
+
+    public void add(Object key) {
+        NodeId hash = ConsistentHashRing.hash(key);
+        for (int i = 0; i < this.hashes; i++) {
+            int position = this.position(hash, i);
+            this.bits[position >>> 6] |= 1L << position;
+        }
+    }
+
+    public boolean mightContain(Object key) {
+        NodeId hash = ConsistentHashRing.hash(key);
+        for (int i = 0; i < this.hashes; i++) {
+            int position = this.position(hash, i);
+            if ((this.bits[position >>> 6] & (1L << position)) == 0) return false;
+        }
+        return true;
+    }
+
+    private int position(NodeId hash, int index) {
+        return (int) Long.remainderUnsigned(hash.getHigh() + index * hash.getLow(), this.size);
+    }
+
+    public void clear() {
+        Arrays.fill(this.bits, 0);
+    }
+
+    /**
+     * @return a copy of this filter, not affected by the keys added to this one afterwards
+     */
+    public BloomFilter copy() {
+        return new BloomFilter(this);
+    }
+}
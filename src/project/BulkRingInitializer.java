@@ -0,0 +1,84 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.core.Network;
+import peersim.core.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static project.Utils.getNodeId;
+import static project.Utils.getTransport;
+
+/**
+ * Initializer building the whole ring at once instead of waking the first node and letting the others join through
+ * the discovery. The nodes are sorted by id, each of them is linked to its neighbors, its successor and predecessor
+ * lists are filled and its fingers are resolved by binary search, in O(N log N) without any packet. Every node comes out
+ * awake, as if it had joined the ring.
+ *
+ * <p>It is configured as {@link DHTProject}, which it replaces, and is meant for experiments that only measure the
+ * lookups and the storage once the ring is built.
+ */
+@Slf4j(topic = "Bulk Initializer")
+public class BulkRingInitializer extends DHTProject {
+    public BulkRingInitializer(String prefix) {
+        super(prefix);
+    }
+
+    @Override
+    public boolean execute() {
+        log.info("Building a ring of {} nodes", Network.size());
+
+        Node[] nodes = new Node[Network.size()];
+        for (int i = 0; i < nodes.length; i++) nodes[i] = Network.get(i);
+        Arrays.sort(nodes, Comparator.comparing(Utils::getNodeId));
+
+        NodeId[] ids = new NodeId[nodes.length];
+        for (int i = 0; i < nodes.length; i++) ids[i] = getNodeId(nodes[i]);
+
+        for (int i = 0; i < nodes.length; i++) {
+            Transport transport = getTransport(nodes[i]);
+            List<Node> predecessors = new ArrayList<>();
+            List<Node> successors = new ArrayList<>();
+            for (int j = 1; j <= Math.max(transport.getNeighborsListSize(), 1); j++) {
+                predecessors.add(nodes[Math.floorMod(i - j, nodes.length)]);
+                successors.add(nodes[(i + j) % nodes.length]);
+            }
+
+            transport.awakeInRing(nodes[i], predecessors, successors);
+
+            FingerTable fingers = transport.getFingerTable();
+            if (fingers != null) {
+                for (int f = 0; f < fingers.size(); f++) {
+                    // the same candidates as a finger lookup: the node following the start and its successors
+                    int successor = successor(ids, fingers.start(f));
+                    List<Node> candidates = new ArrayList<>();
+                    for (int j = 0; j <= Math.max(transport.getNeighborsListSize(), 1); j++) {
+                        candidates.add(nodes[(successor + j) % nodes.length]);
+                    }
+                    fingers.set(f, transport.selectFinger(f, candidates));
+                }
+            }
+        }
+
+        log.info("Done");
+        return false;
+    }
+
+    /**
+     * Find the first node whose id follows a key on the ring
+     * @param ids the sorted ids of the nodes
+     * @param key the key
+     * @return the index of the node with the smallest id greater than or equal to the key, wrapping around the end
+     * of the ring
+     */
+    private static int successor(NodeId[] ids, NodeId key) {
+        int index = Arrays.binarySearch(ids, key);
+        if (index >= 0) return index;
+
+        int insertion = -index - 1;
+        return insertion == ids.length ? 0 : insertion;
+    }
+}
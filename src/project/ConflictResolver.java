@@ -0,0 +1,98 @@
+package project;
+
+import com.google.common.collect.ImmutableMap;
+import peersim.config.IllegalParameterException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Versioning of the values of the hash table, deciding which version of a key a node keeps when it receives another
+ * one, whether from a replication packet, a key transfer or an anti-entropy exchange. Stale versions are dropped
+ * instead of overwriting more recent ones, whatever the order in which the packets are delivered.
+ */
+public abstract class ConflictResolver {
+    public static final String POLICY_LWW = "lww";
+    public static final String POLICY_VECTOR = "vector";
+
+    /**
+     * Create a resolver from the hash table configuration
+     * @param parameter the name of the policy parameter, for error reporting
+     * @param policy the conflict resolution policy, {@value POLICY_LWW} or {@value POLICY_VECTOR}
+     * @return the resolver
+     */
+    public static ConflictResolver create(String parameter, String policy) {
+        if (POLICY_LWW.equals(policy)) return new LastWriterWins();
+        if (POLICY_VECTOR.equals(policy)) return new VectorClocks();
+        throw new IllegalParameterException(parameter, "Unknown conflict resolution policy: " + policy);
+    }
+
+    /**
+     * Version a new write
+     * @param value the value written
+     * @param previous the version of the key held by the coordinator, null if it does not hold the key
+     * @param clock the clock of the coordinator, already advanced for the write
+     * @param coordinator the address of the coordinator
+     * @param expiration the simulation time at which the version expires, {@link Versioned#NEVER} if it does not
+     * @return the new version
+     */
+    public abstract Versioned write(
+            Object value, Versioned previous, HybridClock clock, int coordinator, long expiration
+    );
+
+    /**
+     * Decide which version of a key to keep
+     * @param local the version held by the node, not null
+     * @param remote the version received
+     * @return {@code local} if the received version is stale, {@code remote} if it replaces the local one, or a new
+     * version merging both if they conflict
+     */
+    public abstract Versioned resolve(Versioned local, Versioned remote);
+
+    /**
+     * Keeps the version with the greatest timestamp, concurrent writes are not detected
+     */
+    private static class LastWriterWins extends ConflictResolver {
+        @Override
+        public Versioned write(Object value, Versioned previous, HybridClock clock, int coordinator, long expiration) {
+            return new Versioned(
+                    value, clock.getTime(), clock.getCounter(), coordinator, ImmutableMap.of(), expiration
+            );
+        }
+
+        @Override
+        public Versioned resolve(Versioned local, Versioned remote) {
+            return remote.compareTo(local) > 0 ? remote : local;
+        }
+    }
+
+    /**
+     * Keeps the version that descends from the other one. Concurrent versions, none of which has seen the other, are
+     * merged: the value with the greatest timestamp is kept under the union of both clocks, so the merged version
+     * descends from both and wins over them on every node.
+     */
+    private static class VectorClocks extends ConflictResolver {
+        @Override
+        public Versioned write(Object value, Versioned previous, HybridClock clock, int coordinator, long expiration) {
+            Map<Integer, Long> counts = previous == null ? new HashMap<>() : new HashMap<>(previous.getClock());
+            counts.merge(coordinator, 1L, Long::sum);
+            return new Versioned(
+                    value, clock.getTime(), clock.getCounter(), coordinator, ImmutableMap.copyOf(counts), expiration
+            );
+        }
+
+        @Override
+        public Versioned resolve(Versioned local, Versioned remote) {
+            if (local.descendsFrom(remote)) return local;
+            if (remote.descendsFrom(local)) return remote;
+
+            Map<Integer, Long> counts = new HashMap<>(local.getClock());
+            remote.getClock().forEach((node, count) -> counts.merge(node, count, Math::max));
+            Versioned winner = remote.compareTo(local) > 0 ? remote : local;
+            return new Versioned(
+                    winner.getValue(), winner.getTime(), winner.getCounter(), winner.getCoordinator(),
+                    ImmutableMap.copyOf(counts), winner.getExpiration()
+            );
+        }
+    }
+}
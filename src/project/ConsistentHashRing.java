@@ -0,0 +1,283 @@
+package project;
+
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import peersim.config.IllegalParameterException;
+import peersim.core.Node;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static project.Utils.getNodeId;
+
+/**
+ * Placement of the keys of the hash table. Each node of the ring owns a fixed number of virtual nodes (tokens) spread
+ * over the 128 bits id space, and a key belongs to the node owning the first token following the hash of the key.
+ * Keys and tokens are hashed with murmur3 so the placement neither depends on the class of the keys nor on how the
+ * ids of the nodes are distributed.
+ *
+ * <p>With the {@value PLACEMENT_ORDERED} placement, the position of a key is instead derived from its leading bytes so
+ * the order of the keys is preserved on the ring: each token closes a segment of contiguous keys that can be scanned in
+ * order, at the cost of the balance of the load which now depends on how the keys are spread over the id space.
+ *
+ * <p>A single ring is shared by all the nodes as membership is not gossiped here: owners are known, not their addresses.
+ */
+public class ConsistentHashRing {
+    public static final String PLACEMENT_HASH = "hash";
+    public static final String PLACEMENT_ORDERED = "ordered";
+
+    /**
+     * Last position of the ring, closing the segment of the keys following the last token
+     */
+    public static final NodeId LAST_POSITION = new NodeId(-1, -1);
+
+    /**
+     * Order of the keys matching their {@linkplain #orderedPosition(Object) ordered positions}, keys sharing a position
+     * being ordered by their string representation
+     */
+    public static final Comparator<Object> KEY_ORDER = Comparator
+            .comparing(ConsistentHashRing::orderedPosition)
+            .thenComparing(Object::toString);
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    /**
+     * Number of tokens per node
+     */
+    private final int virtualNodes;
+
+    /**
+     * Whether keys are placed on the ring by their order instead of their hash
+     */
+    private final boolean ordered;
+
+    /**
+     * Tokens of every node of the ring, sorted on the ring
+     */
+    private final NavigableMap<NodeId, Node> tokens = new TreeMap<>();
+
+    public ConsistentHashRing(int virtualNodes, boolean ordered) {
+        this.virtualNodes = virtualNodes;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Create a ring from the initializer configuration
+     * @param parameter the name of the placement parameter, for error reporting
+     * @param placement how keys are placed, {@value PLACEMENT_HASH} or {@value PLACEMENT_ORDERED}
+     * @param virtualNodes the number of tokens per node
+     * @return the ring
+     */
+    public static ConsistentHashRing create(String parameter, String placement, int virtualNodes) {
+        if (PLACEMENT_HASH.equals(placement)) return new ConsistentHashRing(virtualNodes, false);
+        if (PLACEMENT_ORDERED.equals(placement)) return new ConsistentHashRing(virtualNodes, true);
+        throw new IllegalParameterException(parameter, "Unknown placement: " + placement);
+    }
+
+    /**
+     * Hash a key into the id space of the ring
+     * @param key the key to hash
+     * @return the position of the key on the ring
+     */
+    public static NodeId hash(Object key) {
+        Hasher hasher = HASH.newHasher();
+
+        if (key instanceof CharSequence) hasher.putString((CharSequence) key, StandardCharsets.UTF_8);
+        else if (key instanceof Long || key instanceof Integer) hasher.putLong(((Number) key).longValue());
+        else if (key instanceof byte[]) hasher.putBytes((byte[]) key);
+        else hasher.putString(key.toString(), StandardCharsets.UTF_8);
+
+        return toNodeId(hasher.hash());
+    }
+
+    /**
+     * Map a key on the id space while preserving the order of the keys: strings and byte arrays are placed by their
+     * first 16 bytes (UTF-8 for strings), zero padded, and numbers by their value, negative ones first. Strings
+     * sharing their first 16 bytes share their position.
+     * @param key the key to map
+     * @return the position of the key on the ring
+     */
+    public static NodeId orderedPosition(Object key) {
+        if (key instanceof Long || key instanceof Integer) {
+            return new NodeId(((Number) key).longValue() ^ Long.MIN_VALUE, 0);
+        }
+
+        byte[] bytes = key instanceof byte[]
+                ? (byte[]) key
+                : key.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 16) bytes = Arrays.copyOf(bytes, 16);
+
+        return new NodeId(
+                Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5], bytes[6], bytes[7]),
+                Longs.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11], bytes[12], bytes[13], bytes[14], bytes[15])
+        );
+    }
+
+    /**
+     * Compute the position of a virtual node
+     * @param nodeId the id of the physical node
+     * @param index the index of the virtual node
+     * @return the token of the virtual node
+     */
+    public static NodeId token(NodeId nodeId, int index) {
+        return toNodeId(HASH.newHasher()
+                .putLong(nodeId.getHigh())
+                .putLong(nodeId.getLow())
+                .putInt(index)
+                .hash());
+    }
+
+    private static NodeId toNodeId(HashCode hash) {
+        byte[] bytes = hash.asBytes();
+        return new NodeId(
+                Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5], bytes[6], bytes[7]),
+                Longs.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11], bytes[12], bytes[13], bytes[14], bytes[15])
+        );
+    }
+
+    /**
+     * Add the virtual nodes of a node that joined the ring
+     * @param node the node
+     */
+    public void add(Node node) {
+        NodeId nodeId = getNodeId(node);
+        for (int i = 0; i < this.virtualNodes; i++) this.tokens.put(token(nodeId, i), node);
+    }
+
+    /**
+     * Remove the virtual nodes of a node that left the ring
+     * @param node the node
+     */
+    public void remove(Node node) {
+        NodeId nodeId = getNodeId(node);
+        for (int i = 0; i < this.virtualNodes; i++) this.tokens.remove(token(nodeId, i), node);
+    }
+
+    public boolean isEmpty() {
+        return this.tokens.isEmpty();
+    }
+
+    public boolean isOrdered() {
+        return this.ordered;
+    }
+
+    /**
+     * Compute the position of a key following the placement of the ring
+     * @param key the key
+     * @return its {@linkplain #orderedPosition(Object) ordered position} or its {@linkplain #hash(Object) hash}
+     */
+    public NodeId position(Object key) {
+        return this.ordered ? orderedPosition(key) : hash(key);
+    }
+
+    /**
+     * Find the end of the segment of the ring a position belongs to. The segment of the keys following the last token
+     * ends with the ring rather than wrapping around it, so the segments are walked in the order of the keys.
+     * @param position the position
+     * @return the first token following the position, or {@link #LAST_POSITION}
+     */
+    public NodeId segmentEnd(NodeId position) {
+        NodeId token = this.tokens.ceilingKey(position);
+        return token == null ? LAST_POSITION : token;
+    }
+
+    /**
+     * Find the node responsible of a key
+     * @param key the position of the key
+     * @return the node owning the first token following the key
+     */
+    public Node ownerOf(NodeId key) {
+        Map.Entry<NodeId, Node> entry = this.tokens.ceilingEntry(key);
+        // wrap around the end of the ring
+        if (entry == null) entry = this.tokens.firstEntry();
+        return entry.getValue();
+    }
+
+    /**
+     * Walk the ring clockwise from a key to find the distinct nodes that should hold it, the first one being its owner
+     * @param key the position of the key
+     * @param count the number of nodes to find
+     * @return at most {@code count} distinct nodes
+     */
+    public List<Node> preferenceList(NodeId key, int count) {
+        List<Node> nodes = new ArrayList<>(count);
+
+        for (Node node : this.walk(key, true)) {
+            if (nodes.size() == count) return nodes;
+            if (!nodes.contains(node)) nodes.add(node);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Find the nodes following the virtual nodes of a node, hence the nodes that owned its ranges before it joined
+     * @param node the node
+     * @return the distinct nodes following its tokens, the node itself excluded
+     */
+    public Set<Node> successors(Node node) {
+        NodeId nodeId = getNodeId(node);
+        Set<Node> successors = new HashSet<>();
+
+        for (int i = 0; i < this.virtualNodes; i++) {
+            NodeId token = token(nodeId, i);
+            // walk the ring from the token, wrapping around its end, until we find another node
+            for (Node next : this.walk(token, false)) {
+                if (next != node) {
+                    successors.add(next);
+                    break;
+                }
+            }
+        }
+
+        return successors;
+    }
+
+    /**
+     * Walk the tokens clockwise from a position, wrapping around the end of the ring
+     * @param from the position to start from
+     * @param inclusive whether the token at this position, if any, is part of the walk
+     * @return the owners of the tokens, in order
+     */
+    private Iterable<Node> walk(NodeId from, boolean inclusive) {
+        return Iterables.concat(
+                this.tokens.tailMap(from, inclusive).values(),
+                this.tokens.headMap(from, false).values()
+        );
+    }
+
+    /**
+     * Compute the share of the id space owned by each node, hence the expected share of the keys it stores
+     * @return the fraction of the ring owned by each node
+     */
+    public Map<Node, Double> ownership() {
+        Map<Node, Double> shares = new HashMap<>();
+        if (this.tokens.isEmpty()) return shares;
+
+        NodeId previous = this.tokens.lastKey();
+        for (Map.Entry<NodeId, Node> entry : this.tokens.entrySet()) {
+            // the range (previous, token] belongs to the owner of the token
+            NodeId range = previous.distanceTo(entry.getKey());
+            double share = (range.getHigh() >>> 11) / (double) (1L << 53);
+            if (range.getHigh() == 0 && range.getLow() == 0) share = 1; // a single token owns the whole ring
+
+            shares.merge(entry.getValue(), share, Double::sum);
+            previous = entry.getKey();
+        }
+
+        return shares;
+    }
+}
@@ -7,16 +7,23 @@ import peersim.core.Control;
 import peersim.core.Network;
 import peersim.core.Node;
 
-import java.util.Random;
-import java.util.stream.IntStream;
-
 @Slf4j(topic = "Initializer")
 public class DHTProject implements Control {
     private static int TRANSPORT_PID = -1;
+    private static ConsistentHashRing PLACEMENT = null;
+    private static NodeRegistry AWAKEN_NODES = null;
+    private static HotKeys HOT_KEYS = null;
 
     public DHTProject(String prefix) {
         log.info("Creating initializer " + prefix);
         TRANSPORT_PID = Configuration.getPid(prefix + ".transport");
+        PLACEMENT = ConsistentHashRing.create(
+                prefix + ".placement",
+                Configuration.getString(prefix + ".placement", ConsistentHashRing.PLACEMENT_HASH),
+                Configuration.getInt(prefix + ".vnodes", 16)
+        );
+        AWAKEN_NODES = new NodeRegistry(Network.size());
+        HOT_KEYS = new HotKeys();
     }
 
     public static int getTransportPid() {
@@ -24,25 +31,48 @@ public class DHTProject implements Control {
         return TRANSPORT_PID;
     }
 
+    /**
+     * @return the placement of the keys among the nodes of the ring
+     */
+    public static ConsistentHashRing getPlacement() {
+        if (PLACEMENT == null) throw new IllegalStateException("DHT project not yet initialized");
+        return PLACEMENT;
+    }
+
+    /**
+     * @return the keys replicated on additional nodes because of their load
+     */
+    public static HotKeys getHotKeys() {
+        if (HOT_KEYS == null) throw new IllegalStateException("DHT project not yet initialized");
+        return HOT_KEYS;
+    }
+
     /**
      * For this simulation, we'll say that awaken nodes spread heart beats or any sign of life to the network.
-     * Hence it is possible to find a random node from the awaken ones.
+     * Hence it is possible to find a random node from the awaken ones. Nodes that crashed stop sending heart beats
+     * and are forgotten when they are picked.
      * @return a random awaken node
      */
     public static Node getRandomAwakenNode() {
-        Node[] nodes = IntStream.range(0, Network.size())
-                .mapToObj(Network::get)
-                .filter(node -> !((Transport) node.getProtocol(getTransportPid())).isIdle())
-                .toArray(Node[]::new);
-
-        return nodes[new Random().nextInt(nodes.length)];
+        NodeRegistry nodes = getAwakenNodes();
+        Node node = nodes.random();
+        while (!node.isUp()) {
+            nodes.remove(node);
+            node = nodes.random();
+        }
+        return node;
     }
 
     public static long getAwakenNodesCount() {
-        return IntStream.range(0, Network.size())
-                .mapToObj(Network::get)
-                .filter(node -> !((Transport) node.getProtocol(getTransportPid())).isIdle())
-                .count();
+        return getAwakenNodes().size();
+    }
+
+    /**
+     * @return the nodes that are part of the ring, maintained by the transports as they join and leave it
+     */
+    public static NodeRegistry getAwakenNodes() {
+        if (AWAKEN_NODES == null) throw new IllegalStateException("DHT project not yet initialized");
+        return AWAKEN_NODES;
     }
 
 
@@ -59,7 +89,7 @@ public class DHTProject implements Control {
         // Initialize the ring by waking up the first node
         log.info("Initializing first node");
         Node initialNode = Network.get(0);
-        Transport initialTransport = (Transport) initialNode.getProtocol(TRANSPORT_PID);
+        RoutingEngine initialTransport = (RoutingEngine) initialNode.getProtocol(TRANSPORT_PID);
         initialTransport.awakeAsInitialNode(initialNode);
 
 
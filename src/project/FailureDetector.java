@@ -0,0 +1,160 @@
+package project;
+
+import lombok.Getter;
+import peersim.cdsim.CDProtocol;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Network;
+import peersim.core.Node;
+import peersim.edsim.EDProtocol;
+import project.protocol.Packet.PingPacket;
+import project.protocol.Packet.PongPacket;
+import project.protocol.Packet.TrafficPacket;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static project.Utils.getTransport;
+
+/**
+ * Heartbeat failure detector watching the ring neighbors and the fingers of a node. It runs as a cycle based protocol
+ * scheduled by {@link peersim.edsim.CDScheduler}, one cycle every {@code step} time units.
+ *
+ * <p>Any packet received from a watched node counts as a heartbeat, so a node is only pinged if it did not send us
+ * anything during the last cycle. The sender of a packet is not part of its payload, so the transport reports it with a
+ * {@link TrafficPacket} arriving along with the packet, as a network layer would give the source address. A node that
+ * stays silent for {@code timeout} time units is suspected and reported to the transport, which stops routing through
+ * it. Shorter cycles and timeouts detect crashes faster at the cost of more pings.
+ */
+@Getter
+public class FailureDetector implements CDProtocol, EDProtocol {
+    private final String prefix;
+    private final int transportProtocolId;
+
+    /**
+     * Length of a cycle, a watched node is pinged if we did not hear from it during the last cycle
+     */
+    private final long step;
+
+    /**
+     * Time without any sign of life after which a node is suspected
+     */
+    private final long timeout;
+
+    /**
+     * Time at which we last heard from each watched node, by address
+     */
+    private final Map<Integer, Long> lastHeard = new HashMap<>();
+
+    private long pings = 0;
+    private long suspicions = 0;
+
+    /**
+     * Suspicions of nodes that were actually up, only known to the simulation
+     */
+    private long falseSuspicions = 0;
+
+    /**
+     * Sum of the silence durations after which crashed nodes were suspected
+     */
+    private long detectionTime = 0;
+    private long maxDetectionTime = 0;
+
+    public FailureDetector(String prefix) {
+        this.prefix = prefix;
+        this.transportProtocolId = Configuration.getPid(prefix + ".transport");
+        this.step = Configuration.getLong(prefix + ".step");
+        this.timeout = Configuration.getLong(prefix + ".timeout");
+    }
+
+    @Override
+    public Object clone() {
+        return new FailureDetector(this.prefix);
+    }
+
+    /**
+     * A packet sent by another node has been received
+     * @param sender the node that sent the packet
+     * @param time the time at which the packet was received
+     */
+    private void onTraffic(Node sender, long time) {
+        this.lastHeard.merge(sender.getIndex(), time, Math::max);
+    }
+
+    @Override
+    public void nextCycle(Node node, int protocolID) {
+        // the detector watches the neighbors of the ring, other overlays do without it
+        if (!(node.getProtocol(this.transportProtocolId) instanceof Transport)) return;
+
+        Transport transport = (Transport) node.getProtocol(this.transportProtocolId);
+        if (transport.isIdle()) {
+            this.lastHeard.clear();
+            return;
+        }
+
+        long now = CommonState.getTime();
+        Set<Node> watched = watchedNodes(transport);
+        // forget the nodes we stopped watching, new ones are given a full timeout before being suspected
+        this.lastHeard.keySet().removeIf(address -> !watched.contains(Network.get(address)));
+
+        for (Node target : watched) {
+            long heard = this.lastHeard.computeIfAbsent(target.getIndex(), address -> now);
+            long silence = now - heard;
+
+            if (silence >= this.timeout && transport.isAlive(target)) this.suspect(transport, target, silence);
+            else if (silence < this.timeout && !transport.isAlive(target)) transport.unsuspect(target);
+
+            if (silence >= this.step) {
+                // nothing received during the last cycle, ask for a sign of life
+                this.pings++;
+                transport.send(node, target, new PingPacket(node.getIndex()), protocolID);
+            }
+        }
+    }
+
+    private void suspect(Transport transport, Node target, long silence) {
+        this.suspicions++;
+        if (target.isUp()) {
+            this.falseSuspicions++;
+        } else {
+            this.detectionTime += silence;
+            this.maxDetectionTime = Math.max(this.maxDetectionTime, silence);
+        }
+        transport.suspect(target);
+    }
+
+    @Override
+    public void processEvent(Node node, int pid, Object event) {
+        Transport transport = (Transport) node.getProtocol(this.transportProtocolId);
+
+        // every packet received is a sign of life of its sender, the pings and the pongs included
+        if (event instanceof TrafficPacket) {
+            this.onTraffic(Network.get(((TrafficPacket) event).getAddress()), CommonState.getTime());
+        } else if (event instanceof PingPacket) {
+            Node sender = Network.get(((PingPacket) event).getAddress());
+            transport.send(node, sender, new PongPacket(node.getIndex()), pid);
+        }
+    }
+
+    /**
+     * @return the ring neighbors and the fingers of the node, the node itself excluded
+     */
+    private static Set<Node> watchedNodes(Transport transport) {
+        Set<Node> watched = new LinkedHashSet<>();
+        watched.add(transport.getLeft());
+        watched.add(transport.getRight());
+
+        FingerTable fingers = transport.getFingerTable();
+        if (fingers != null) {
+            for (int i = 0; i < fingers.size(); i++) {
+                if (fingers.get(i) != null) watched.add(fingers.get(i));
+            }
+        }
+
+        watched.remove(transport.getLocalNode());
+        watched.removeIf(node -> getTransport(node).isIdle());
+        return watched;
+    }
+}
@@ -0,0 +1,50 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Control;
+import peersim.core.Network;
+
+/**
+ * Report the trade-off made by the failure detectors: the number of pings they sent against the time they took to
+ * suspect the nodes that crashed, and how many nodes they wrongly suspected.
+ */
+@Slf4j(topic = "Failure Detector Observer")
+public class FailureDetectorObserver implements Control {
+    private final int detectorProtocolId;
+
+    public FailureDetectorObserver(String prefix) {
+        this.detectorProtocolId = Configuration.getPid(prefix + ".detector");
+    }
+
+    @Override
+    public boolean execute() {
+        long pings = 0, suspicions = 0, falseSuspicions = 0, detectionTime = 0, maxDetectionTime = 0;
+        long step = 0, timeout = 0;
+
+        for (int i = 0; i < Network.size(); i++) {
+            FailureDetector detector = (FailureDetector) Network.get(i).getProtocol(this.detectorProtocolId);
+            pings += detector.getPings();
+            suspicions += detector.getSuspicions();
+            falseSuspicions += detector.getFalseSuspicions();
+            detectionTime += detector.getDetectionTime();
+            maxDetectionTime = Math.max(maxDetectionTime, detector.getMaxDetectionTime());
+            step = detector.getStep();
+            timeout = detector.getTimeout();
+        }
+
+        long cycles = Math.max(CommonState.getTime() / step, 1);
+        long detections = suspicions - falseSuspicions;
+        log.info(
+                "Failure detector (step={}, timeout={}): {} pings, {} per node per cycle",
+                step, timeout, pings, String.format("%.2f", pings / (double) (cycles * Network.size()))
+        );
+        log.info(
+                "Crashes detected {} times: mean silence before suspicion={} max={}, {} false suspicions",
+                detections, detections == 0 ? 0 : detectionTime / detections, maxDetectionTime, falseSuspicions
+        );
+
+        return false;
+    }
+}
@@ -0,0 +1,125 @@
+package project;
+
+import peersim.core.Node;
+
+import java.util.function.Predicate;
+
+import static project.Utils.getNodeId;
+import static project.Utils.getTransport;
+
+/**
+ * Chord-like routing table of a {@link Transport}. The finger {@code i} points to the first node following
+ * {@code id + 2^(128 - size + i)} on the ring, so the last finger covers half of the ring and each preceding finger
+ * halves the covered distance. Only the {@code size} highest fingers are kept as the lower ones would all point to
+ * our right neighbor in a ring of a few thousand nodes.
+ */
+public class FingerTable {
+    /**
+     * Id of the node owning the table
+     */
+    private final NodeId id;
+
+    /**
+     * Finger nodes, null while the finger has not been resolved yet
+     */
+    private final Node[] fingers;
+
+    /**
+     * Index of the next finger to refresh
+     */
+    private int next = 0;
+
+    public FingerTable(NodeId id, int size) {
+        this.id = id;
+        this.fingers = new Node[size];
+    }
+
+    public int size() {
+        return this.fingers.length;
+    }
+
+    /**
+     * Get the first id covered by a finger
+     * @param index the index of the finger
+     * @return {@code id + 2^(128 - size + index)}
+     */
+    public NodeId start(int index) {
+        return this.id.offset(128 - this.fingers.length + index);
+    }
+
+    /**
+     * Get the end of the interval covered by a finger, that is the start of the next finger or our own id for the last
+     * one
+     * @param index the index of the finger
+     * @return the first id not covered by the finger
+     */
+    public NodeId end(int index) {
+        return index + 1 < this.fingers.length ? this.start(index + 1) : this.id;
+    }
+
+    /**
+     * Check whether a node could be used as a finger
+     * @param index the index of the finger
+     * @param nodeId the id of the node
+     * @return true if the id is in {@code [start(index), end(index))}
+     */
+    public boolean covers(int index, NodeId nodeId) {
+        NodeId start = this.start(index);
+        return nodeId.equals(start) || nodeId.isBetween(start, this.end(index));
+    }
+
+    public Node get(int index) {
+        return this.fingers[index];
+    }
+
+    public void set(int index, Node node) {
+        this.fingers[index] = node;
+    }
+
+    /**
+     * Fill every finger with the same node, used when joining the ring while waiting for the lookups to resolve
+     * @param node the node to use, generally the right neighbor
+     */
+    public void fill(Node node) {
+        for (int i = 0; i < this.fingers.length; i++) this.fingers[i] = node;
+    }
+
+    public void clear() {
+        this.fill(null);
+        this.next = 0;
+    }
+
+    /**
+     * Round-robin over the fingers to refresh
+     * @return the index of the next finger to refresh
+     */
+    public int nextToFix() {
+        int index = this.next;
+        this.next = (this.next + 1) % this.fingers.length;
+        return index;
+    }
+
+    /**
+     * Find the finger that is the closest to the target while preceding it on the ring. Fingers pointing to nodes that
+     * left the ring or are believed to be down are skipped.
+     * @param targetHigh the most significant bits of the id we are trying to reach
+     * @param targetLow the least significant bits of the id we are trying to reach
+     * @param alive whether a node is believed to be alive by the owner of the table
+     * @return the closest preceding finger, or null if no finger precedes the target
+     */
+    public Node closestPrecedingNode(long targetHigh, long targetLow, Predicate<Node> alive) {
+        for (int i = this.fingers.length - 1; i >= 0; i--) {
+            Node finger = this.fingers[i];
+            if (finger == null || !alive.test(finger) || getTransport(finger).isIdle()) continue;
+
+            NodeId fingerId = getNodeId(finger);
+            if (NodeId.isBetween(
+                    fingerId.getHigh(), fingerId.getLow(),
+                    this.id.getHigh(), this.id.getLow(),
+                    targetHigh, targetLow
+            )) return finger;
+        }
+
+        return null;
+    }
+}
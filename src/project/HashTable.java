@@ -1,41 +1,415 @@
 package project;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.primitives.Ints;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
+import peersim.core.CommonState;
+import peersim.core.Network;
 import peersim.core.Node;
 import peersim.edsim.EDProtocol;
+import peersim.edsim.EDSimulator;
+import project.protocol.ApplicationPacket.AntiEntropyTimerPacket;
+import project.protocol.ApplicationPacket.BatchReadPacket;
+import project.protocol.ApplicationPacket.BatchReadResponsePacket;
+import project.protocol.ApplicationPacket.BatchReplicationAckPacket;
+import project.protocol.ApplicationPacket.BatchReplicationPacket;
+import project.protocol.ApplicationPacket.DeletePacket;
+import project.protocol.ApplicationPacket.DropHotReplicaPacket;
+import project.protocol.ApplicationPacket.ExpiryTimerPacket;
 import project.protocol.ApplicationPacket.GetPacket;
 import project.protocol.ApplicationPacket.GetResponsePacket;
+import project.protocol.ApplicationPacket.GetTimeoutPacket;
+import project.protocol.ApplicationPacket.HotKeysTimerPacket;
+import project.protocol.ApplicationPacket.HotReplicaPacket;
+import project.protocol.ApplicationPacket.InitApplication;
+import project.protocol.ApplicationPacket.InvalidateLeasePacket;
+import project.protocol.ApplicationPacket.KeyRangeRequestPacket;
+import project.protocol.ApplicationPacket.KeyTransferPacket;
+import project.protocol.ApplicationPacket.LeaveApplication;
+import project.protocol.ApplicationPacket.MerkleEntriesPacket;
+import project.protocol.ApplicationPacket.MerkleHashesPacket;
+import project.protocol.ApplicationPacket.MultiGetPacket;
+import project.protocol.ApplicationPacket.MultiGetResponsePacket;
+import project.protocol.ApplicationPacket.MultiPutPacket;
+import project.protocol.ApplicationPacket.OperationFailedPacket;
 import project.protocol.ApplicationPacket.PutPacket;
+import project.protocol.ApplicationPacket.PutResponsePacket;
+import project.protocol.ApplicationPacket.PutTimeoutPacket;
+import project.protocol.ApplicationPacket.QuorumTimeoutPacket;
+import project.protocol.ApplicationPacket.ReadPacket;
+import project.protocol.ApplicationPacket.ReadResponsePacket;
+import project.protocol.ApplicationPacket.ReplicationAckPacket;
 import project.protocol.ApplicationPacket.ReplicationPacket;
+import project.protocol.ApplicationPacket.ScanPacket;
+import project.protocol.ApplicationPacket.ScanResponsePacket;
+import project.protocol.ApplicationPacket.ScanTimeoutPacket;
+import project.protocol.ApplicationPacket.SummaryUpdateAckPacket;
+import project.protocol.ApplicationPacket.SummaryUpdatePacket;
+import project.protocol.RoutablePacket;
+import project.protocol.RoutablePacket.UndeliverableRoutablePacket;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 import static com.google.common.base.Preconditions.checkState;
 import static project.Utils.getNodeId;
 
 @Slf4j
-public class HashTable implements EDProtocol {
-    private final Map<Object,Object> storage = new HashMap<>();
-    private final Multimap<Object, CompletableFuture<Object>> pendingGets = ArrayListMultimap.create();
+public class HashTable implements EDProtocol, RouteInterceptor, SummaryExchange {
+    /**
+     * Versions of the keys held by this node, sorted by key when the placement preserves their order so the segments
+     * of the ring can be scanned. Created once the node is known, as the placement is only created by the initializer.
+     */
+    private Map<Object, Versioned> storage = Collections.emptyMap();
+
+    /**
+     * Gets sent by this node that have not been answered yet, by request id. Each of them is failed once all its
+     * attempts timed out, so the map does not grow when nodes leave without answering.
+     */
+    private final Map<Long, PendingGet> pendingGets = new HashMap<>();
+
+    /**
+     * Puts and deletes sent by this node that have not been acknowledged yet, by request id. Many writes can be in
+     * flight at once, even on the same key.
+     */
+    private final Map<Long, PendingPut> pendingPuts = new HashMap<>();
+
+    /**
+     * Batches of gets sent by this node that have not been answered yet, by request id
+     */
+    private final Map<Long, PendingBatch> pendingBatches = new HashMap<>();
+
+    /**
+     * Scans sent by this node that have not reached their last segment yet, by request id
+     */
+    private final Map<Long, PendingScan> pendingScans = new HashMap<>();
+    private long nextRequest = 0;
+
+    /**
+     * End-to-end latency of the puts sent by this node, from the call to {@link #put} to the acknowledgment
+     */
+    private final LatencyRecorder writeLatencies = new LatencyRecorder();
+
+    /**
+     * End-to-end latency of the gets sent by this node that succeeded, retries included
+     */
+    private final LatencyRecorder readLatencies = new LatencyRecorder();
+
+    private long getAttempts = 0;
+    private long getTimeouts = 0;
+    private long failedGets = 0;
+
+    /**
+     * Number of puts and deletes of this node that were not acknowledged in time or could not be routed
+     */
+    private long failedPuts = 0;
+
+    /**
+     * Number of gets that reached this node as owner of their key, hence its read load
+     */
+    private long coordinatedGets = 0;
+
+    /**
+     * Number of gets answered by this node as additional replica of a hot key
+     */
+    private long hotReplicaGets = 0;
+
+    /**
+     * Gets received per key as owner, since a few periods, null if hot keys are not replicated
+     */
+    private final SpaceSaving keyRates;
+
+    /**
+     * Hot keys owned by this node, replicated on additional nodes
+     */
+    private final Set<Object> ownedHotKeys = new HashSet<>();
+
+    /**
+     * Values of the hot keys of other nodes for which this node is an additional replica
+     */
+    private final Map<Object, Versioned> hotReplicas = new HashMap<>();
+
+    /**
+     * Delay between two checks of the rate of the keys owned by this node
+     */
+    private final long hotKeysPeriod;
+
+    /**
+     * Number of gets per period from which a key is replicated on additional nodes, it stops being replicated when
+     * its rate falls under half of it
+     */
+    private final long hotKeysThreshold;
+
+    /**
+     * Number of additional replicas of a hot key
+     */
+    private final int hotKeysReplicas;
+
+    /**
+     * Whether the next check of the hot keys is scheduled, so rejoining the ring before it fires does not start a
+     * second chain of checks
+     */
+    private boolean hotKeysScheduled = false;
+
+    /**
+     * Operations coordinated by this node that are waiting for their quorum
+     */
+    private final Map<Long, Quorum> pendingQuorums = new HashMap<>();
+
+    /**
+     * Batches of operations coordinated by this node, waiting for the quorum of each of their keys
+     */
+    private final Map<Long, BatchQuorum> pendingBatchQuorums = new HashMap<>();
+    private long nextOperation = 0;
 
     private final String prefix;
     private final int transportProtocolId;
-    private Transport node;
 
-    // Initial logger uses the UUID to bez identifiable, will then be changed to the node index
+    /**
+     * Number of nodes holding a key: its owner and the following nodes on the placement ring
+     */
+    private final int replicationFactor;
+
+    /**
+     * Number of nodes that must answer a get before the value is returned
+     */
+    private final int readQuorum;
+
+    /**
+     * Number of nodes that must acknowledge a put before it is considered done
+     */
+    private final int writeQuorum;
+
+    /**
+     * Maximum number of keys sent in a single transfer packet when keys are handed over to another node
+     */
+    private final int transferBatch;
+
+    /**
+     * Time after which a get attempt or a quorum is given up, a put waits twice as long for its acknowledgment
+     */
+    private final long timeout;
+
+    /**
+     * Number of times a get is sent again, to the next node of the preference list of the key, after a timeout
+     */
+    private final int retries;
+
+    /**
+     * Maximum number of gets waiting for an answer, new gets are rejected beyond
+     */
+    private final int maxPendingGets;
+
+    /**
+     * Values seen in the get responses routed through this node, used to answer the gets for the same keys on their
+     * way to the owner. Disabled if its capacity is 0.
+     */
+    private final ValueCache pathCache;
+
+    /**
+     * Time during which a value stays in the path cache
+     */
+    private final long pathCacheTtl;
+
+    /**
+     * Values this node read as client and still holds a lease on, so they are read again without any packet.
+     * Disabled if its capacity is 0.
+     */
+    private final ValueCache leaseCache;
+
+    /**
+     * Duration of the leases granted by this node as owner, 0 to grant no lease
+     */
+    private final long leaseDuration;
+
+    /**
+     * Leases granted by this node as owner: the addresses of the clients holding a lease on each key and the
+     * expiration of their lease. The clients are told to drop the value when the key is written, or when the key is
+     * handed over to a new owner that does not know the leases.
+     */
+    private final Map<Object, Map<Integer, Long>> leases = new HashMap<>();
+
+    /**
+     * Bloom filter over the keys stored by this node, sent to its neighbors, null if keys are not summarized
+     */
+    private final BloomFilter keysFilter;
+
+    /**
+     * Whether keys have been dropped since the filter was built, in which case it must be rebuilt
+     */
+    private boolean keysFilterOutdated = false;
+
+    /**
+     * Keys added to our filter during the current event, sent to the neighbors holding our summary once it is processed
+     */
+    private final Set<Object> summaryAdditions = new HashSet<>();
+
+    /**
+     * Writes coordinated during the current event that must not be acknowledged before the update of our summary
+     */
+    private final List<Long> summaryWaiting = new ArrayList<>();
+
+    /**
+     * Updates of our summary sent to our neighbors and not acknowledged by all of them yet, by id
+     */
+    private final Map<Long, SummaryUpdate> pendingSummaryUpdates = new HashMap<>();
+
+    /**
+     * Last summaries received from the neighbors of this node, by node id
+     */
+    private final Map<NodeId, KeySummary> neighborSummaries = new HashMap<>();
+
+    /**
+     * Updates received from the neighbors of this node, by node id, replayed on a summary sent before them that
+     * arrived after them
+     */
+    private final Map<NodeId, List<SummaryUpdatePacket>> summaryUpdates = new HashMap<>();
+
+    /**
+     * Age after which a summary is not trusted anymore, as its node may have stopped sending us the keys written since
+     */
+    private final long summaryMaxAge;
+
+    /**
+     * Number of gets this node answered with no value, their key missing from the summary of their target
+     */
+    private long summaryMisses = 0;
+
+    /**
+     * Period of the anti-entropy exchanges of this node with its neighbors, 0 if the replicas are not compared
+     */
+    private final long antiEntropyPeriod;
+
+    /**
+     * Depth of the Merkle trees compared during the anti-entropy exchanges
+     */
+    private final int merkleDepth;
+
+    /**
+     * Whether the next anti-entropy exchange is scheduled, so rejoining the ring before it fires does not start a
+     * second chain of exchanges
+     */
+    private boolean antiEntropyScheduled = false;
+
+    /**
+     * Expirations of the entries written with a time to live and of the tombstones
+     */
+    private final TimerWheel<Object> expirations;
+
+    /**
+     * Whether the next tick of the timer wheel is scheduled, it is not while the wheel is empty
+     */
+    private boolean expiryScheduled = false;
+
+    /**
+     * Time a tombstone is kept, long enough for the delete to reach every replica, before it is dropped
+     */
+    private final long tombstoneTtl;
+
+    private long expiredValues = 0;
+    private long purgedTombstones = 0;
+
+    /**
+     * Decides which version of a key to keep when another version is received
+     */
+    private final ConflictResolver resolver;
+
+    /**
+     * Clock timestamping the writes coordinated by this node
+     */
+    private final HybridClock clock;
+
+    /**
+     * Number of replication and hot replica packets dropped as we already held a more recent version of their key
+     */
+    private long staleWrites = 0;
+
+    /**
+     * Number of concurrent versions merged by this node
+     */
+    private long conflicts = 0;
+
+    private long antiEntropyExchanges = 0;
+    private long merkleHashesSent = 0;
+    private long repairEntriesSent = 0;
+    private long repairedKeys = 0;
+
+    private RoutingEngine node;
+
+    // Initial logger uses the id to bez identifiable, will then be changed to the node index
     private Logger logger = LoggerFactory.getLogger("HashTable (unknown)");
 
     public HashTable(String prefix) {
         this.prefix = prefix;
         this.transportProtocolId = Configuration.getPid(prefix + ".transport");
+        this.transferBatch = Configuration.getInt(prefix + ".transferbatch", 1000);
+        this.timeout = Configuration.getLong(prefix + ".timeout", 5000);
+        this.retries = Configuration.getInt(prefix + ".retries", 2);
+        this.maxPendingGets = Configuration.getInt(prefix + ".maxpendinggets", 10000);
+        this.pathCache = new ValueCache(Configuration.getInt(prefix + ".pathcache.capacity", 0));
+        this.pathCacheTtl = Configuration.getLong(prefix + ".pathcache.ttl", this.timeout);
+        this.leaseCache = new ValueCache(Configuration.getInt(prefix + ".lease.capacity", 0));
+        // no lease is granted if the clients do not cache the values
+        this.leaseDuration = this.leaseCache.isEnabled() ? Configuration.getLong(prefix + ".lease.duration", 0) : 0;
+
+        int filterSize = Configuration.getInt(prefix + ".summary.bits", 0);
+        this.keysFilter = filterSize > 0
+                ? new BloomFilter(filterSize, Configuration.getInt(prefix + ".summary.hashes", 4))
+                : null;
+        this.summaryMaxAge = Configuration.getLong(prefix + ".summary.maxage", 2 * this.timeout);
+
+        int counters = Configuration.getInt(prefix + ".hotkeys.counters", 0);
+        this.keyRates = counters > 0 ? new SpaceSaving(counters) : null;
+        this.hotKeysPeriod = Configuration.getLong(prefix + ".hotkeys.period", 10 * this.timeout);
+        this.hotKeysThreshold = Configuration.getLong(prefix + ".hotkeys.threshold", 50);
+        this.hotKeysReplicas = Configuration.getInt(prefix + ".hotkeys.replicas", 2);
+
+        this.resolver = ConflictResolver.create(
+                prefix + ".versions", Configuration.getString(prefix + ".versions", ConflictResolver.POLICY_LWW)
+        );
+        long skew = Configuration.getLong(prefix + ".versions.skew", 0);
+        this.clock = new HybridClock(skew > 0 ? CommonState.r.nextLong(skew + 1) : 0);
+        this.expirations = new TimerWheel<>(
+                Configuration.getLong(prefix + ".ttl.tick", this.timeout), CommonState.getTime()
+        );
+        this.tombstoneTtl = Configuration.getLong(prefix + ".tombstone.ttl", 100 * this.timeout);
+
+        this.antiEntropyPeriod = Configuration.getLong(prefix + ".antientropy.period", 0);
+        this.merkleDepth = Configuration.getInt(prefix + ".antientropy.depth", 10);
+        if (this.merkleDepth < 0 || this.merkleDepth > 20) {
+            throw new IllegalParameterException(prefix + ".antientropy.depth", "Must be between 0 and 20");
+        }
+
+        this.replicationFactor = Configuration.getInt(prefix + ".replicas", 3);
+        this.readQuorum = Configuration.getInt(prefix + ".readquorum", 2);
+        this.writeQuorum = Configuration.getInt(prefix + ".writequorum", 2);
+        if (this.replicationFactor < 1) {
+            throw new IllegalParameterException(prefix + ".replicas", "At least one node must hold the keys");
+        }
+        if (this.readQuorum < 1 || this.readQuorum > this.replicationFactor) {
+            throw new IllegalParameterException(prefix + ".readquorum", "Must be between 1 and the replication factor");
+        }
+        if (this.writeQuorum < 1 || this.writeQuorum > this.replicationFactor) {
+            throw new IllegalParameterException(prefix + ".writequorum", "Must be between 1 and the replication factor");
+        }
     }
 
     @Override
@@ -48,120 +422,1969 @@ public class HashTable implements EDProtocol {
         if (this.node == null) this.setNode(node);
 
         if (event instanceof PutPacket) this.onPutPacket((PutPacket) event);
+        else if (event instanceof DeletePacket) this.onDeletePacket((DeletePacket) event);
+        else if (event instanceof MultiPutPacket) this.onMultiPutPacket((MultiPutPacket) event);
+        else if (event instanceof MultiGetPacket) this.onMultiGetPacket((MultiGetPacket) event);
+        else if (event instanceof MultiGetResponsePacket) this.onMultiGetResponsePacket((MultiGetResponsePacket) event);
+        else if (event instanceof BatchReplicationPacket) this.onBatchReplicationPacket((BatchReplicationPacket) event);
+        else if (event instanceof BatchReplicationAckPacket) {
+            this.onBatchReplicationAckPacket((BatchReplicationAckPacket) event);
+        } else if (event instanceof BatchReadPacket) this.onBatchReadPacket((BatchReadPacket) event);
+        else if (event instanceof BatchReadResponsePacket) {
+            BatchReadResponsePacket response = (BatchReadResponsePacket) event;
+            this.onBatchAnswer(response.getOperation(), response.getValues().keySet(), response.getValues());
+        }
         else if (event instanceof GetPacket) this.onGetPacket((GetPacket) event);
         else if (event instanceof ReplicationPacket) this.onReplicationPacket((ReplicationPacket) event);
+        else if (event instanceof ReplicationAckPacket) this.onQuorumAnswer(((ReplicationAckPacket) event).getOperation(), null);
+        else if (event instanceof ReadPacket) this.onReadPacket((ReadPacket) event);
+        else if (event instanceof ReadResponsePacket) this.onReadResponsePacket((ReadResponsePacket) event);
         else if (event instanceof GetResponsePacket) this.onGetResponsePacket((GetResponsePacket) event);
+        else if (event instanceof PutResponsePacket) this.onPutResponsePacket((PutResponsePacket) event);
+        else if (event instanceof GetTimeoutPacket) this.onGetTimeoutPacket((GetTimeoutPacket) event);
+        else if (event instanceof PutTimeoutPacket) this.onPutTimeoutPacket((PutTimeoutPacket) event);
+        else if (event instanceof OperationFailedPacket) this.onOperationFailedPacket((OperationFailedPacket) event);
+        else if (event instanceof QuorumTimeoutPacket) this.onQuorumTimeoutPacket((QuorumTimeoutPacket) event);
+        else if (event instanceof UndeliverableRoutablePacket) this.onUndeliverable((UndeliverableRoutablePacket) event);
+        else if (event instanceof InitApplication) this.onInitApplication((InitApplication) event);
+        else if (event instanceof LeaveApplication) this.onLeaveApplication();
+        else if (event instanceof KeyRangeRequestPacket) this.onKeyRangeRequestPacket((KeyRangeRequestPacket) event);
+        else if (event instanceof KeyTransferPacket) this.onKeyTransferPacket((KeyTransferPacket) event);
+        else if (event instanceof HotReplicaPacket) this.onHotReplicaPacket((HotReplicaPacket) event);
+        else if (event instanceof DropHotReplicaPacket) this.hotReplicas.remove(((DropHotReplicaPacket) event).getKey());
+        else if (event instanceof HotKeysTimerPacket) this.onHotKeysTimerPacket();
+        else if (event instanceof InvalidateLeasePacket) this.onInvalidateLeasePacket((InvalidateLeasePacket) event);
+        else if (event instanceof AntiEntropyTimerPacket) this.onAntiEntropyTimerPacket();
+        else if (event instanceof ExpiryTimerPacket) this.onExpiryTimerPacket();
+        else if (event instanceof MerkleHashesPacket) this.onMerkleHashesPacket((MerkleHashesPacket) event);
+        else if (event instanceof MerkleEntriesPacket) this.onMerkleEntriesPacket((MerkleEntriesPacket) event);
+        else if (event instanceof ScanPacket) this.onScanPacket((ScanPacket) event);
+        else if (event instanceof ScanResponsePacket) this.onScanResponsePacket((ScanResponsePacket) event);
+        else if (event instanceof ScanTimeoutPacket) this.onScanTimeoutPacket((ScanTimeoutPacket) event);
+        else if (event instanceof SummaryUpdatePacket) this.onSummaryUpdatePacket((SummaryUpdatePacket) event);
+        else if (event instanceof SummaryUpdateAckPacket) this.onSummaryUpdateAckPacket((SummaryUpdateAckPacket) event);
+
+        if (!this.summaryAdditions.isEmpty()) this.sendSummaryUpdate();
     }
 
     /**
      * Put a mapping on the cluster
      * @param key the key of the data
      * @param value the data
+     * @return a future completed once the write quorum acknowledged the data
+     */
+    public CompletableFuture<Void> put(Object key, Object value) {
+        return this.put(key, value, PutPacket.NO_TTL);
+    }
+
+    /**
+     * Put a mapping on the cluster, dropped by every replica once its time to live expired
+     * @param key the key of the data
+     * @param value the data
+     * @param ttl the time to live of the data from its write by the owner of the key, {@link PutPacket#NO_TTL} for
+     *            data that does not expire
+     * @return a future completed once the write quorum acknowledged the data
+     */
+    public CompletableFuture<Void> put(Object key, Object value, long ttl) {
+        checkState(this.node != null, "HashTable not initialized");
+        Preconditions.checkArgument(value != null, "Null values cannot be stored, delete the key instead");
+
+        long request = this.nextRequest++;
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        NodeId owner = getNodeId(placement.ownerOf(placement.position(key)));
+        return this.write(request, Collections.singleton(key), new PutPacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), owner,
+                request, key, value, ttl
+        ));
+    }
+
+    /**
+     * Delete a mapping from the cluster
+     * @param key the key of the data
+     * @return a future completed once the write quorum acknowledged the delete
+     */
+    public CompletableFuture<Void> delete(Object key) {
+        checkState(this.node != null, "HashTable not initialized");
+
+        long request = this.nextRequest++;
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        NodeId owner = getNodeId(placement.ownerOf(placement.position(key)));
+        return this.write(request, Collections.singleton(key), new DeletePacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), owner,
+                request, key
+        ));
+    }
+
+    /**
+     * Put several mappings on the cluster. The keys are grouped by owner and each group is sent as a single packet,
+     * acknowledged by a single packet once the write quorum of each of its keys is reached.
+     * @param entries the keys and their data
+     * @return a future completed once every group has been acknowledged
      */
-    public void put(Object key, Object value) {
+    public CompletableFuture<Void> putAll(Map<?, ?> entries) {
         checkState(this.node != null, "HashTable not initialized");
+        Preconditions.checkArgument(!entries.containsValue(null), "Null values cannot be stored, delete the key instead");
+
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        Map<Node, Map<Object, Object>> groups = new HashMap<>();
+        entries.forEach((key, value) -> groups
+                .computeIfAbsent(placement.ownerOf(placement.position(key)), owner -> new HashMap<>())
+                .put(key, value));
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        groups.forEach((owner, group) -> {
+            long request = this.nextRequest++;
+            futures.add(this.write(request, group.keySet(), new MultiPutPacket(
+                    this.node.getLocalNode().getIndex(),
+                    this.node.getId(), getNodeId(owner),
+                    request, group
+            )));
+        });
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private CompletableFuture<Void> write(long request, Collection<?> keys, RoutablePacket packet) {
+        PendingPut pending = new PendingPut(new CompletableFuture<>(), CommonState.getTime());
+
+        // the values we hold a lease on are outdated, even before the owner tells us
+        keys.forEach(this.leaseCache::invalidate);
+        this.pendingPuts.put(request, pending);
+        this.node.route(packet);
+        // the owner waits up to a timeout for the write quorum, then the acknowledgment has to be routed back to us
+        EDSimulator.add(
+                2 * this.timeout, new PutTimeoutPacket(request),
+                this.node.getLocalNode(), this.node.getApplicationPid()
+        );
+        return pending.future;
+    }
 
-        PutPacket packet = new PutPacket(key, value);
-        this.onPutPacket(packet);
+    private void onPutTimeoutPacket(PutTimeoutPacket packet) {
+        this.failPut(packet.getRequest(), new TimeoutException(String.format(
+                "No acknowledgment for the write %d", packet.getRequest()
+        )));
     }
 
+    /**
+     * Fail a write that has not been acknowledged yet
+     * @param request the id of the write
+     * @param error the error to complete its future with
+     */
+    private void failPut(long request, Throwable error) {
+        PendingPut pending = this.pendingPuts.remove(request);
+        // acknowledged, or already failed
+        if (pending == null) return;
+
+        this.failedPuts++;
+        pending.future.completeExceptionally(error);
+    }
+
+    /**
+     * Get a value from the cluster. The get is sent to the owner of the key and, if it does not answer in time, to the
+     * following nodes of its preference list. The first attempt of a get on a hot key is sent to its owner or to one
+     * of its additional replicas, at random. A value we hold a lease on is returned right away.
+     * @param key the key of the data
+     * @return a future completed with the value, or with a {@link TimeoutException} if no node answered
+     */
     public CompletableFuture<Object> get(Object key) {
         checkState(this.node != null, "HashTable not initialized");
 
-        GetPacket packet = new GetPacket(this.node.getId(), key);
+        if (this.leaseCache.isEnabled()) {
+            Object value = this.leaseCache.get(key, CommonState.getTime());
+            if (value != null) {
+                this.readLatencies.record(0);
+                return CompletableFuture.completedFuture(value);
+            }
+        }
+
         CompletableFuture<Object> future = new CompletableFuture<>();
+        if (this.pendingGets.size() >= this.maxPendingGets) {
+            future.completeExceptionally(new IllegalStateException("Too many pending gets"));
+            return future;
+        }
 
-        this.pendingGets.put(key, future);
-        this.onGetPacket(packet);
+        long request = this.nextRequest++;
+        PendingGet pending = new PendingGet(future, key, CommonState.getTime());
+        this.pendingGets.put(request, pending);
+        this.sendGet(request, pending);
         return future;
     }
 
-    private void onGetResponsePacket(GetResponsePacket packet) {
-        this.pendingGets
-                .removeAll(packet.getKey())
-                .forEach(future -> future.complete(packet.getValue()));
+    /**
+     * Get several values from the cluster. The keys are grouped by owner and each group is sent as a single packet,
+     * answered by a single packet once the read quorum of each of its keys is reached. The keys of a group that is not
+     * answered in time are fetched one by one with {@link #get(Object)}, which retries them on the other nodes of their
+     * preference lists. Values we hold a lease on are returned right away.
+     * @param keys the keys of the data
+     * @return a future completed with the value of each key, null for missing keys
+     */
+    public CompletableFuture<Map<Object, Object>> getAll(Collection<?> keys) {
+        checkState(this.node != null, "HashTable not initialized");
+
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        Map<Object, Object> values = new HashMap<>();
+        Map<Node, List<Object>> groups = new HashMap<>();
+        for (Object key : keys) {
+            Object value = this.leaseCache.isEnabled() ? this.leaseCache.get(key, CommonState.getTime()) : null;
+            if (value != null) {
+                this.readLatencies.record(0);
+                values.put(key, value);
+            } else {
+                groups.computeIfAbsent(placement.ownerOf(placement.position(key)), n -> new ArrayList<>()).add(key);
+            }
+        }
+
+        List<CompletableFuture<Map<Object, Object>>> futures = new ArrayList<>();
+        groups.forEach((owner, group) -> {
+            long request = this.nextRequest++;
+            PendingBatch pending = new PendingBatch(new CompletableFuture<>(), group, CommonState.getTime());
+            this.pendingBatches.put(request, pending);
+            futures.add(pending.future);
+
+            this.getAttempts++;
+            this.node.route(new MultiGetPacket(
+                    this.node.getLocalNode().getIndex(),
+                    this.node.getId(), getNodeId(owner),
+                    request, group
+            ));
+            EDSimulator.add(
+                    this.timeout, new GetTimeoutPacket(request, 0),
+                    this.node.getLocalNode(), this.node.getApplicationPid()
+            );
+        });
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            for (CompletableFuture<Map<Object, Object>> future : futures) values.putAll(future.join());
+            return values;
+        });
     }
 
-    private void onReplicationPacket(ReplicationPacket packet) {
-        this.storage.put(packet.getKey(), packet.getValue());
-        this.logger.debug("Replicated storage for `{}`", packet.getValue());
+    private void onMultiGetResponsePacket(MultiGetResponsePacket packet) {
+        PendingBatch pending = this.pendingBatches.remove(packet.getRequest());
+        if (pending == null) return;
+
+        Map<Object, Object> values = new HashMap<>();
+        for (Object key : pending.keys) {
+            values.put(key, packet.getValues().get(key));
+            this.readLatencies.record(CommonState.getTime() - pending.start);
+        }
+        pending.future.complete(values);
     }
 
-    private void onPutPacket(PutPacket packet) {
-        // transforming UUIDs to int, keeping most significant bits
-        int localId = getId(this.node);
-        int leftId = getId(this.node.getLeft());
-        int rightId = getId(this.node.getRight());
+    /**
+     * A batch of gets was not answered in time or could not be routed, its keys are fetched one by one
+     * @param pending the batch
+     */
+    private void splitBatch(PendingBatch pending) {
+        if (this.node.isIdle()) {
+            pending.future.completeExceptionally(new IllegalStateException("The node left the ring"));
+            return;
+        }
 
-        // by comparing the hash to our ids, we can distribute date equally across the ring
-        int keyHash = packet.getKey().hashCode();
+        Map<Object, Object> values = new HashMap<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Object key : pending.keys) futures.add(this.get(key).thenAccept(value -> values.put(key, value)));
 
-        if (this.node.isFirst() && keyHash < localId || this.node.isLast() && keyHash > localId) this.store(packet, keyHash);
-        else if (keyHash > localId + (rightId - localId) / 2)  this.node.send(this.node.getRight(), packet);
-        else if (keyHash < localId + (leftId - localId) / 2) this.node.send(this.node.getLeft(), packet);
-        else this.store(packet, keyHash);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+            if (error != null) pending.future.completeExceptionally(error);
+            else pending.future.complete(values);
+        });
     }
 
-    private void store(PutPacket packet, int hash) {
-        // store on local node
-        this.storage.put(packet.getKey(), packet.getValue());
+    /**
+     * Scan the keys of {@code [from, to)} in order, which needs the {@value ConsistentHashRing#PLACEMENT_ORDERED}
+     * placement. The scan is routed to the owner of {@code from}, which sends us the entries of its segment of the ring
+     * then forwards the scan to the owner of the next segment, and so on until {@code to} or the limit is reached. The
+     * entries are thus handed to the consumer segment by segment as they arrive instead of being gathered first. Each
+     * segment is read from its owner only.
+     * @param from the first key of the range
+     * @param to the end of the range, excluded
+     * @param limit the maximum number of entries to return
+     * @param consumer called with each key and its value, in key order
+     * @return a future completed with the number of entries scanned, or with a {@link TimeoutException} if a segment
+     * was not received in time
+     */
+    public CompletableFuture<Integer> scan(Object from, Object to, int limit, BiConsumer<Object, Object> consumer) {
+        checkState(this.node != null, "HashTable not initialized");
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        checkState(placement.isOrdered(), "Keys can only be scanned with the ordered placement");
+        Preconditions.checkArgument(limit > 0, "The limit of a scan must be positive");
 
-        // replicate on neighbors
-        ReplicationPacket replicationPacket = ReplicationPacket.from(packet);
-        this.node.send(this.node.getLeft(), replicationPacket);
-        this.node.send(this.node.getRight(), replicationPacket);
+        long request = this.nextRequest++;
+        PendingScan pending = new PendingScan(new CompletableFuture<>(), consumer);
+        this.pendingScans.put(request, pending);
 
-        this.logger.debug("Stored value for `{}` (hash: {})", packet.getKey(), String.format("%08x", hash));
+        NodeId start = placement.position(from);
+        this.node.route(new ScanPacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), getNodeId(placement.ownerOf(start)),
+                request, 0, from, to, start, limit
+        ));
+        EDSimulator.add(
+                this.timeout, new ScanTimeoutPacket(request, 0),
+                this.node.getLocalNode(), this.node.getApplicationPid()
+        );
+        return pending.future;
     }
 
-    private void onGetPacket(GetPacket packet) {
-        // transforming UUIDs to int, keeping most significant bits
-        int leftId = getId(this.node.getLeft());
-        int rightId = getId(this.node.getRight());
-        int keyHash = packet.getKey().hashCode();
+    /**
+     * Hand the entries of a segment of a scan to its consumer if every previous segment has been received, otherwise
+     * keep them until they have
+     * @param packet the packet received
+     */
+    private void onScanResponsePacket(ScanResponsePacket packet) {
+        PendingScan pending = this.pendingScans.get(packet.getRequest());
+        // a segment of a scan that timed out
+        if (pending == null || packet.getSegment() < pending.segment) return;
 
-        // TODO test edge cases
+        pending.early.put(packet.getSegment(), packet);
+        ScanResponsePacket next;
+        while ((next = pending.early.remove(pending.segment)) != null) {
+            next.getEntries().forEach(pending.consumer);
+            pending.entries += next.getEntries().size();
+            pending.segment++;
 
-        if (keyHash > rightId && !this.node.isLast()) this.node.sendRight(packet);
-        else if (keyHash < leftId && !this.node.isFirst()) this.node.sendLeft(packet);
-        else {
-            // We should have the data or a replication of the data
-            Object value = this.storage.get(packet.getKey());
+            if (next.isLast()) {
+                this.pendingScans.remove(packet.getRequest());
+                pending.future.complete(pending.entries);
+                return;
+            }
+        }
 
-            GetResponsePacket response = new GetResponsePacket(
-                    this.node.getLocalNode().getIndex(),
-                    this.node.getId(), packet.getSender(),
-                    packet.getKey(), value
-            );
+        EDSimulator.add(
+                this.timeout, new ScanTimeoutPacket(packet.getRequest(), pending.segment),
+                this.node.getLocalNode(), this.node.getApplicationPid()
+        );
+    }
 
-            this.node.route(response);
-            this.logger.debug("Found data for `{}`", packet.getKey());
-        }
+    private void onScanTimeoutPacket(ScanTimeoutPacket packet) {
+        PendingScan pending = this.pendingScans.get(packet.getRequest());
+        // completed, or the segment was received since
+        if (pending == null || pending.segment != packet.getSegment()) return;
+
+        this.pendingScans.remove(packet.getRequest());
+        pending.future.completeExceptionally(new TimeoutException(String.format(
+                "No answer for the segment %d of the scan after %d entries", pending.segment, pending.entries
+        )));
     }
 
-    private void setNode(Node node) {
-        this.node = (Transport) node.getProtocol(this.transportProtocolId);
-        this.logger = LoggerFactory.getLogger(String.format(
-                "HashTable %016x (Node %d)",
-                this.node.getId().getMostSignificantBits(), node.getIndex()
+    /**
+     * Send an attempt of a get to the node of the preference list matching the attempt, and schedule its timeout
+     * @param request the id of the get
+     * @param pending the get
+     */
+    private void sendGet(long request, PendingGet pending) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        List<Node> holders = placement.preferenceList(placement.position(pending.key), this.replicationFactor);
+        Node holder = holders.get(pending.attempt % holders.size());
+        List<Node> hotReplicas = DHTProject.getHotKeys().get(pending.key);
+        if (pending.attempt == 0 && !hotReplicas.isEmpty()) {
+            int choice = CommonState.r.nextInt(hotReplicas.size() + 1);
+            if (choice < hotReplicas.size()) holder = hotReplicas.get(choice);
+        }
+        NodeId target = getNodeId(holder);
+
+        if (this.isMissing(target, pending.key)) {
+            // the target is one of our neighbors and its summary tells it does not store the key
+            this.pendingGets.remove(request);
+            this.summaryMisses++;
+            this.readLatencies.record(CommonState.getTime() - pending.start);
+            pending.future.complete(null);
+            return;
+        }
+
+        this.getAttempts++;
+        this.node.route(new GetPacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), target,
+                request, pending.key
         ));
+        EDSimulator.add(
+                this.timeout, new GetTimeoutPacket(request, pending.attempt),
+                this.node.getLocalNode(), this.node.getApplicationPid()
+        );
     }
 
     /**
-     * Transform UUIDs to int, keeping most significant bits
-     * @param node the node to get the id from
-     * @return the most significant
+     * An attempt of a get has not been answered in time, it is sent to the next node of the preference list of the
+     * key, or the get is failed if it has no attempt left
+     * @param packet the timeout fired
      */
-    private static int getId(Node node) {
-        return (int) (getNodeId(node).getMostSignificantBits() >>> 32);
+    private void onGetTimeoutPacket(GetTimeoutPacket packet) {
+        PendingBatch batch = this.pendingBatches.remove(packet.getRequest());
+        if (batch != null) {
+            this.getTimeouts++;
+            this.splitBatch(batch);
+            return;
+        }
+
+        PendingGet pending = this.pendingGets.get(packet.getRequest());
+        // answered, or already retried after the attempt was reported undeliverable
+        if (pending == null || pending.attempt != packet.getAttempt()) return;
+
+        this.getTimeouts++;
+        this.retryGet(packet.getRequest(), pending);
+    }
+
+    private void retryGet(long request, PendingGet pending) {
+        if (pending.attempt == this.retries || this.node.isIdle()) {
+            this.pendingGets.remove(request);
+            this.failedGets++;
+            pending.future.completeExceptionally(this.node.isIdle()
+                    ? new IllegalStateException("The node left the ring")
+                    : new TimeoutException(String.format(
+                            "No answer for `%s` after %d attempts", pending.key, pending.attempt + 1
+                    )));
+            return;
+        }
+
+        pending.attempt++;
+        this.logger.debug("Retrying get of `{}` (attempt {})", pending.key, pending.attempt + 1);
+        this.sendGet(request, pending);
     }
 
     /**
-     * Transform UUIDs to int, keeping most significant bits
-     * @param node the node to get the id from
-     * @return the most significant
+     * A packet of another node is routed through us. The values of the get responses are cached, the gets for a
+     * cached key are answered right away and the puts invalidate the cached value of their key. The gets for a key
+     * missing from the summary of their target are answered right away with no value, and the puts add their key to
+     * the summary of their target.
+     * @param node the local node
+     * @param packet the packet, not yet forwarded
+     * @return true if the packet is a get we answered
      */
-    private static int getId(Transport node) {
-        return (int) (node.getId().getMostSignificantBits() >>> 32);
+    @Override
+    public boolean intercept(Node node, RoutablePacket packet) {
+        if (!this.pathCache.isEnabled() && this.keysFilter == null) return false;
+        if (this.node == null) this.setNode(node);
+
+        if (packet instanceof GetResponsePacket) {
+            GetResponsePacket response = (GetResponsePacket) packet;
+            if (response.getValue() != null) {
+                this.pathCache.put(response.getKey(), response.getValue(), CommonState.getTime() + this.pathCacheTtl);
+            }
+        } else if (packet instanceof PutPacket) {
+            PutPacket put = (PutPacket) packet;
+            this.pathCache.invalidate(put.getKey());
+
+            KeySummary summary = this.neighborSummaries.get(put.getTarget());
+            if (summary != null) summary.getKeys().add(put.getKey());
+        } else if (packet instanceof MultiPutPacket) {
+            MultiPutPacket put = (MultiPutPacket) packet;
+            put.getEntries().keySet().forEach(this.pathCache::invalidate);
+
+            KeySummary summary = this.neighborSummaries.get(put.getTarget());
+            if (summary != null) put.getEntries().keySet().forEach(summary.getKeys()::add);
+        } else if (packet instanceof DeletePacket) {
+            this.pathCache.invalidate(((DeletePacket) packet).getKey());
+        } else if (packet instanceof GetPacket) {
+            GetPacket get = (GetPacket) packet;
+            Object value = null;
+            if (this.isMissing(get.getTarget(), get.getKey())) {
+                this.summaryMisses++;
+                this.logger.debug("Answering get of `{}`, missing from the summary of its target", get.getKey());
+            } else {
+                value = this.pathCache.isEnabled() ? this.pathCache.get(get.getKey(), CommonState.getTime()) : null;
+                if (value == null) return false;
+                this.logger.debug("Answering get of `{}` from the path cache", get.getKey());
+            }
+
+            this.node.route(new GetResponsePacket(
+                    this.node.getLocalNode().getIndex(),
+                    this.node.getId(), get.getSender(),
+                    get.getRequest(), get.getKey(), value
+            ));
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether a node surely does not store a key, from the last summary of its keys we received
+     * @param target the id of the node
+     * @param key the key
+     * @return true if we received a summary of the node that is recent enough and does not contain the key
+     */
+    private boolean isMissing(NodeId target, Object key) {
+        if (this.keysFilter == null) return false;
+
+        KeySummary summary = this.neighborSummaries.get(target);
+        if (summary == null || CommonState.getTime() - summary.getTime() > this.summaryMaxAge) return false;
+        // a former neighbor is not sent the keys written to the node anymore
+        Transport transport = (Transport) this.node;
+        if (!target.equals(getNodeId(transport.getLeft())) && !target.equals(getNodeId(transport.getRight()))) {
+            return false;
+        }
+        // the additional replicas of a hot key do not store it with their own keys
+        return !summary.getKeys().mightContain(key) && !DHTProject.getHotKeys().isHot(key);
+    }
+
+    @Override
+    public KeySummary getSummary() {
+        if (this.keysFilter == null || this.node == null) return null;
+
+        if (this.keysFilterOutdated) {
+            // keys cannot be removed from a Bloom filter, it is rebuilt once keys have been dropped
+            this.keysFilter.clear();
+            this.storage.keySet().forEach(this.keysFilter::add);
+            this.keysFilterOutdated = false;
+        }
+        return new KeySummary(this.node.getLocalNode().getIndex(), CommonState.getTime(), this.keysFilter.copy());
+    }
+
+    @Override
+    public void onSummary(KeySummary summary) {
+        if (this.keysFilter == null) return;
+
+        long now = CommonState.getTime();
+        this.neighborSummaries.values().removeIf(previous -> now - previous.getTime() > this.summaryMaxAge);
+        for (List<SummaryUpdatePacket> updates : this.summaryUpdates.values()) {
+            updates.removeIf(update -> now - update.getTime() > this.summaryMaxAge);
+        }
+        this.summaryUpdates.values().removeIf(List::isEmpty);
+
+        NodeId sender = getNodeId(Network.get(summary.getAddress()));
+        KeySummary previous = this.neighborSummaries.get(sender);
+        // overtaken on its way by a more recent summary
+        if (previous != null && previous.getTime() > summary.getTime()) return;
+
+        List<SummaryUpdatePacket> updates = this.summaryUpdates.getOrDefault(sender, Collections.emptyList());
+        updates.removeIf(update -> update.getTime() < summary.getTime());
+        for (SummaryUpdatePacket update : updates) update.getKeys().forEach(summary.getKeys()::add);
+        this.neighborSummaries.put(sender, summary);
+    }
+
+    /**
+     * Send the keys stored for the first time during the event to our ring neighbors, as they hold our summary. Every
+     * write path goes through {@link #store(Object, Versioned)}, so they never miss a key we hold. The writes waiting
+     * for the update are acknowledged once every neighbor received it.
+     */
+    private void sendSummaryUpdate() {
+        Set<Node> neighbors = new HashSet<>();
+        // only the ring exchanges summaries
+        if (this.node instanceof Transport && !this.node.isIdle()) {
+            Transport transport = (Transport) this.node;
+            neighbors.add(transport.getLeft());
+            neighbors.add(transport.getRight());
+            neighbors.remove(this.node.getLocalNode());
+        }
+
+        long update = SummaryUpdatePacket.NO_ACK;
+        if (!neighbors.isEmpty() && !this.summaryWaiting.isEmpty()) {
+            update = this.nextOperation++;
+            List<Long> operations = new ArrayList<>(this.summaryWaiting);
+            this.pendingSummaryUpdates.put(update, new SummaryUpdate(neighbors.size(), operations));
+        } else {
+            this.summaryWaiting.forEach(this::onSummaryUpdated);
+        }
+
+        SummaryUpdatePacket packet = new SummaryUpdatePacket(
+                this.node.getLocalNode().getIndex(), update, CommonState.getTime(), new HashSet<>(this.summaryAdditions)
+        );
+        this.summaryAdditions.clear();
+        this.summaryWaiting.clear();
+        for (Node neighbor : neighbors) this.node.send(neighbor, packet);
+    }
+
+    /**
+     * A neighbor stored keys that may be missing from the summary we hold, received before or after this update
+     * @param packet the packet received
+     */
+    private void onSummaryUpdatePacket(SummaryUpdatePacket packet) {
+        if (packet.getUpdate() != SummaryUpdatePacket.NO_ACK) {
+            this.node.send(Network.get(packet.getAddress()), new SummaryUpdateAckPacket(packet.getUpdate()));
+        }
+        if (this.keysFilter == null) return;
+
+        NodeId sender = getNodeId(Network.get(packet.getAddress()));
+        this.summaryUpdates.computeIfAbsent(sender, id -> new ArrayList<>()).add(packet);
+        KeySummary summary = this.neighborSummaries.get(sender);
+        if (summary != null) packet.getKeys().forEach(summary.getKeys()::add);
+    }
+
+    private void onSummaryUpdateAckPacket(SummaryUpdateAckPacket packet) {
+        SummaryUpdate update = this.pendingSummaryUpdates.get(packet.getUpdate());
+        // dropped when we left the ring
+        if (update == null || --update.remaining > 0) return;
+
+        this.pendingSummaryUpdates.remove(packet.getUpdate());
+        update.operations.forEach(this::onSummaryUpdated);
+    }
+
+    /**
+     * Hold the acknowledgment of a write we coordinate until our neighbors received the keys we stored for it: gets are
+     * sent to the owner of their key first, and its neighbors must not report the key missing once the write is
+     * acknowledged
+     * @param operation the id of the write
+     */
+    private void awaitSummaryUpdate(long operation) {
+        Quorum quorum = this.pendingQuorums.get(operation);
+        BatchQuorum batch = this.pendingBatchQuorums.get(operation);
+        if (quorum != null) quorum.summaryPending = true;
+        if (batch != null) batch.summaryPending = true;
+        this.summaryWaiting.add(operation);
+    }
+
+    /**
+     * Our neighbors received the keys stored for a write we coordinate, it is acknowledged if it reached its quorum
+     * @param operation the id of the write
+     */
+    private void onSummaryUpdated(long operation) {
+        Quorum quorum = this.pendingQuorums.get(operation);
+        if (quorum != null) {
+            quorum.summaryPending = false;
+            if (quorum.answers >= quorum.required) this.completeQuorum(operation, quorum);
+        }
+
+        BatchQuorum batch = this.pendingBatchQuorums.get(operation);
+        if (batch != null) {
+            batch.summaryPending = false;
+            if (batch.remaining.isEmpty()) this.completeBatchQuorum(operation, batch);
+        }
+    }
+
+    /**
+     * Store a version of a key, keeping the summary of our keys up to date
+     * @param key the key
+     * @param version the version
+     */
+    private void store(Object key, Versioned version) {
+        this.storage.put(key, version);
+        if (this.keysFilter != null && !this.keysFilter.mightContain(key)) {
+            // keys already in the filter are already in the summaries of our neighbors
+            this.keysFilter.add(key);
+            this.summaryAdditions.add(key);
+        }
+
+        if (version.getExpiration() != Versioned.NEVER) {
+            this.expirations.schedule(key, version.getExpiration());
+            if (!this.expiryScheduled) {
+                this.expiryScheduled = true;
+                EDSimulator.add(
+                        this.expirations.getTick(), new ExpiryTimerPacket(),
+                        this.node.getLocalNode(), this.node.getApplicationPid()
+                );
+            }
+        }
+    }
+
+    /**
+     * Drop the entries the timers of which fired on the wheel, unless they were written again since with a later
+     * expiration. The wheel is advanced at each tick until it is empty.
+     */
+    private void onExpiryTimerPacket() {
+        long now = CommonState.getTime();
+
+        for (Object key : this.expirations.advance(now)) {
+            Versioned version = this.storage.get(key);
+            if (version == null || !version.isExpired(now)) continue;
+
+            this.storage.remove(key);
+            this.keysFilterOutdated = true;
+            if (version.isTombstone()) this.purgedTombstones++;
+            else this.expiredValues++;
+        }
+
+        this.expiryScheduled = !this.expirations.isEmpty();
+        if (this.expiryScheduled) {
+            EDSimulator.add(
+                    this.expirations.getTick(), new ExpiryTimerPacket(),
+                    this.node.getLocalNode(), this.node.getApplicationPid()
+            );
+        }
+    }
+
+    /**
+     * Store a version of a key received from another node, unless the version we hold is more recent
+     * @param key the key
+     * @param version the version received
+     * @return true if the version we hold changed
+     */
+    private boolean merge(Object key, Versioned version) {
+        this.clock.update(version.getTime(), version.getCounter());
+        // a replica that did not drop it yet must not bring an expired entry back
+        if (version.isExpired(CommonState.getTime())) return false;
+
+        Versioned local = this.storage.get(key);
+        Versioned kept = local == null ? version : this.resolver.resolve(local, version);
+        if (kept == local) return false;
+
+        if (kept != version) {
+            this.conflicts++;
+            this.logger.debug("Merged concurrent versions of `{}`", key);
+        }
+        this.store(key, kept);
+        return true;
+    }
+
+    /**
+     * The transport was not able to route one of our packets, a get is retried without waiting for its timeout and a
+     * write is failed
+     * @param packet the packet received
+     */
+    private void onUndeliverable(UndeliverableRoutablePacket packet) {
+        RoutablePacket original = packet.getOriginalPacket();
+        long write = original instanceof PutPacket ? ((PutPacket) original).getRequest()
+                : original instanceof DeletePacket ? ((DeletePacket) original).getRequest()
+                : original instanceof MultiPutPacket ? ((MultiPutPacket) original).getRequest()
+                : -1;
+        if (write != -1) {
+            this.failPut(write, new IllegalStateException("Write not delivered: " + packet.getReason()));
+            return;
+        }
+
+        if (packet.getOriginalPacket() instanceof MultiGetPacket) {
+            PendingBatch batch = this.pendingBatches.remove(((MultiGetPacket) packet.getOriginalPacket()).getRequest());
+            if (batch != null) this.splitBatch(batch);
+            return;
+        }
+        if (!(packet.getOriginalPacket() instanceof GetPacket)) return;
+
+        long request = ((GetPacket) packet.getOriginalPacket()).getRequest();
+        PendingGet pending = this.pendingGets.get(request);
+        if (pending != null) this.retryGet(request, pending);
+    }
+
+    /**
+     * The node joined the ring, its virtual nodes are added to the placement and we ask the nodes that owned their
+     * ranges until now for the keys we must hold
+     */
+    private void onInitApplication(InitApplication packet) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        placement.add(this.node.getLocalNode());
+        if (this.keyRates != null && !this.hotKeysScheduled) {
+            this.hotKeysScheduled = true;
+            EDSimulator.add(
+                    this.hotKeysPeriod, new HotKeysTimerPacket(),
+                    this.node.getLocalNode(), this.node.getApplicationPid()
+            );
+        }
+        if (this.antiEntropyPeriod > 0 && !this.antiEntropyScheduled) {
+            this.antiEntropyScheduled = true;
+            EDSimulator.add(
+                    this.antiEntropyPeriod, new AntiEntropyTimerPacket(),
+                    this.node.getLocalNode(), this.node.getApplicationPid()
+            );
+        }
+        if (!packet.isRequestingKeys()) return;
+
+        KeyRangeRequestPacket request = new KeyRangeRequestPacket(this.node.getLocalNode().getIndex());
+        for (Node successor : placement.successors(this.node.getLocalNode())) {
+            this.logger.debug("Requesting keys from node {}", successor.getIndex());
+            this.node.send(successor, request);
+        }
+    }
+
+    /**
+     * The node left the ring, its virtual nodes are removed from the placement and each key is pushed to the node
+     * that takes our place in its preference list
+     */
+    private void onLeaveApplication() {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        Map<Object, List<Node>> holders = new HashMap<>();
+        for (Object key : this.storage.keySet()) {
+            holders.put(key, placement.preferenceList(placement.position(key), this.replicationFactor));
+        }
+
+        placement.remove(this.node.getLocalNode());
+
+        Map<Node, Map<Object, Versioned>> transfers = new HashMap<>();
+        holders.forEach((key, previousHolders) -> {
+            for (Node holder : placement.preferenceList(placement.position(key), this.replicationFactor)) {
+                if (previousHolders.contains(holder)) continue;
+                transfers.computeIfAbsent(holder, n -> new HashMap<>()).put(key, this.storage.get(key));
+            }
+        });
+
+        transfers.forEach(this::transfer);
+        this.logger.debug("Handed {} keys over to {} nodes", this.storage.size(), transfers.size());
+        this.storage.clear();
+        this.keysFilterOutdated = true;
+        this.summaryAdditions.clear();
+        this.summaryWaiting.clear();
+        this.pendingSummaryUpdates.clear();
+        this.neighborSummaries.clear();
+        this.summaryUpdates.clear();
+        this.pathCache.clear();
+        // we will not see the puts of our keys anymore
+        new ArrayList<>(this.leases.keySet()).forEach(this::revokeLeases);
+
+        for (Object key : this.ownedHotKeys) this.demote(key);
+        this.ownedHotKeys.clear();
+        this.hotReplicas.clear();
+        if (this.keyRates != null) this.keyRates.clear();
+
+        // the operations in flight cannot complete anymore, their answers would have to be routed from an idle node
+        this.pendingQuorums.clear();
+        this.pendingBatchQuorums.clear();
+        this.failPending(new IllegalStateException("The node left the ring"));
+    }
+
+    /**
+     * Fail every get, put, batch and scan sent by this node that has not been answered yet
+     * @param error the error to complete their futures with
+     */
+    private void failPending(Throwable error) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        this.pendingGets.values().forEach(pending -> futures.add(pending.future));
+        this.pendingPuts.values().forEach(pending -> futures.add(pending.future));
+        this.pendingBatches.values().forEach(pending -> futures.add(pending.future));
+        this.pendingScans.values().forEach(pending -> futures.add(pending.future));
+
+        this.failedGets += this.pendingGets.size();
+        this.failedPuts += this.pendingPuts.size();
+        this.pendingGets.clear();
+        this.pendingPuts.clear();
+        this.pendingBatches.clear();
+        this.pendingScans.clear();
+        // the maps are cleared first as the callbacks of the futures may send new operations
+        futures.forEach(future -> future.completeExceptionally(error));
+    }
+
+    /**
+     * A node joined the ring, we send it the keys it must now hold and drop those we do not hold anymore. The leases we
+     * granted on the keys it now owns are revoked, as it will coordinate their puts.
+     * @param packet the packet received
+     */
+    private void onKeyRangeRequestPacket(KeyRangeRequestPacket packet) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        Node requester = Network.get(packet.getAddress());
+        Map<Object, Versioned> entries = new HashMap<>();
+
+        Iterator<Map.Entry<Object, Versioned>> iterator = this.storage.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Object, Versioned> entry = iterator.next();
+            List<Node> holders = placement.preferenceList(placement.position(entry.getKey()), this.replicationFactor);
+
+            if (holders.contains(requester)) entries.put(entry.getKey(), entry.getValue());
+            if (holders.get(0) != this.node.getLocalNode()) this.revokeLeases(entry.getKey());
+            if (!holders.contains(this.node.getLocalNode())) iterator.remove();
+        }
+        this.keysFilterOutdated = true;
+
+        if (entries.isEmpty()) return;
+        this.transfer(requester, entries);
+        this.logger.debug("Handed {} keys over to node {}", entries.size(), packet.getAddress());
+    }
+
+    /**
+     * Keys have been handed over to us
+     * @param packet the packet received
+     */
+    private void onKeyTransferPacket(KeyTransferPacket packet) {
+        // a put may have reached us since we joined, its version is more recent than the transferred one
+        packet.getEntries().forEach(this::merge);
+        this.keysFilterOutdated = true;
+        this.logger.debug("Received {} keys", packet.getEntries().size());
+    }
+
+    /**
+     * Send keys to another node, in batches of at most {@link #transferBatch} keys
+     * @param destination the node to send the keys to
+     * @param entries the keys and their values
+     */
+    private void transfer(Node destination, Map<Object, Versioned> entries) {
+        Map<Object, Versioned> batch = new HashMap<>();
+
+        for (Map.Entry<Object, Versioned> entry : entries.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+            if (batch.size() == this.transferBatch) {
+                this.node.send(destination, new KeyTransferPacket(batch));
+                batch = new HashMap<>();
+            }
+        }
+
+        if (!batch.isEmpty()) this.node.send(destination, new KeyTransferPacket(batch));
+    }
+
+    private void onGetResponsePacket(GetResponsePacket packet) {
+        PendingGet pending = this.pendingGets.remove(packet.getRequest());
+        // a late answer to an attempt we already retried or failed
+        if (pending == null) return;
+
+        // the lease is ignored if the key was written while the response was on its way
+        if (packet.getLease() > CommonState.getTime() && !pending.invalidated) {
+            this.leaseCache.put(packet.getKey(), packet.getValue(), packet.getLease());
+        }
+
+        this.readLatencies.record(CommonState.getTime() - pending.start);
+        pending.future.complete(packet.getValue());
+    }
+
+    private void onPutResponsePacket(PutResponsePacket packet) {
+        PendingPut pending = this.pendingPuts.remove(packet.getRequest());
+        if (pending == null) return;
+
+        this.writeLatencies.record(CommonState.getTime() - pending.start);
+        pending.future.complete(null);
+    }
+
+    /**
+     * The put packet has been routed to us as we own the key
+     * @param packet the packet received
+     */
+    private void onPutPacket(PutPacket packet) {
+        long expiration = packet.getTtl() == PutPacket.NO_TTL
+                ? Versioned.NEVER
+                : CommonState.getTime() + packet.getTtl();
+        this.coordinateWrite(packet.getSender(), packet.getRequest(), packet.getKey(), packet.getValue(), expiration);
+    }
+
+    /**
+     * The delete packet has been routed to us as we own the key, a tombstone replaces its value. The tombstone is kept
+     * long enough for the delete to reach every replica, through anti-entropy if needed, so the deleted value is not
+     * brought back by a replica that missed it.
+     * @param packet the packet received
+     */
+    private void onDeletePacket(DeletePacket packet) {
+        long expiration = CommonState.getTime() + this.tombstoneTtl;
+        this.coordinateWrite(packet.getSender(), packet.getRequest(), packet.getKey(), null, expiration);
+    }
+
+    /**
+     * Version a write of a key we own then coordinate it on the nodes of the preference list of the key, answering
+     * once the write quorum is reached
+     * @param client the id of the client
+     * @param request the id of the request of the client
+     * @param key the key
+     * @param value the value, null for a delete
+     * @param expiration the simulation time at which the value expires
+     */
+    private void coordinateWrite(NodeId client, long request, Object key, Object value, long expiration) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        NodeId position = placement.position(key);
+        List<Node> holders = placement.preferenceList(position, this.replicationFactor);
+
+        long operation = this.nextOperation++;
+        PutResponsePacket response = new PutResponsePacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), client,
+                request
+        );
+        this.startQuorum(operation, new Quorum(response, Math.min(this.writeQuorum, holders.size())));
+
+        Versioned version = this.version(key, value, expiration);
+        ReplicationPacket replicationPacket = new ReplicationPacket(
+                this.node.getLocalNode().getIndex(), operation,
+                key, version
+        );
+        for (Node holder : holders) {
+            if (holder != this.node.getLocalNode()) this.node.send(holder, replicationPacket);
+        }
+
+        if (holders.contains(this.node.getLocalNode())) {
+            this.store(key, version);
+            if (!this.summaryAdditions.isEmpty()) this.awaitSummaryUpdate(operation);
+            this.onQuorumAnswer(operation, null);
+        }
+
+        this.propagate(key, version);
+        this.logger.debug("Stored {} for `{}` (position: {})", value == null ? "tombstone" : "value", key, position);
+    }
+
+    /**
+     * A batch of puts has been routed to us as we own its keys. The writes are sent to the nodes of the preference
+     * lists of the keys, with a single packet per node, and the batch is acknowledged once the write quorum of every
+     * key is reached.
+     * @param packet the packet received
+     */
+    private void onMultiPutPacket(MultiPutPacket packet) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        long operation = this.nextOperation++;
+        BatchQuorum quorum = new BatchQuorum(new PutResponsePacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), packet.getSender(),
+                packet.getRequest()
+        ));
+
+        Map<Node, Map<Object, Versioned>> replications = new HashMap<>();
+        List<Object> stored = new ArrayList<>();
+        packet.getEntries().forEach((key, value) -> {
+            List<Node> holders = placement.preferenceList(placement.position(key), this.replicationFactor);
+            quorum.remaining.put(key, Math.min(this.writeQuorum, holders.size()));
+
+            Versioned version = this.version(key, value, Versioned.NEVER);
+            for (Node holder : holders) {
+                if (holder != this.node.getLocalNode()) {
+                    replications.computeIfAbsent(holder, n -> new HashMap<>()).put(key, version);
+                } else {
+                    this.store(key, version);
+                    stored.add(key);
+                }
+            }
+            this.propagate(key, version);
+        });
+        this.startBatchQuorum(operation, quorum);
+        if (!this.summaryAdditions.isEmpty()) this.awaitSummaryUpdate(operation);
+
+        replications.forEach((holder, entries) -> {
+            quorum.keys.put(holder.getIndex(), entries.keySet());
+            this.node.send(holder, new BatchReplicationPacket(this.node.getLocalNode().getIndex(), operation, entries));
+        });
+        if (!stored.isEmpty()) this.onBatchAnswer(operation, stored, null);
+        this.logger.debug("Stored a batch of {} values", packet.getEntries().size());
+    }
+
+    /**
+     * Writes of a batch coordinated by the owner of their keys, each stored unless a more recent write was delivered
+     * first. The batch is acknowledged as a whole.
+     * @param packet the packet received
+     */
+    private void onBatchReplicationPacket(BatchReplicationPacket packet) {
+        packet.getEntries().forEach((key, version) -> {
+            if (!this.merge(key, version)) this.staleWrites++;
+        });
+        this.node.send(
+                Network.get(packet.getCoordinator()),
+                new BatchReplicationAckPacket(this.node.getLocalNode().getIndex(), packet.getOperation())
+        );
+    }
+
+    private void onBatchReplicationAckPacket(BatchReplicationAckPacket packet) {
+        BatchQuorum quorum = this.pendingBatchQuorums.get(packet.getOperation());
+        if (quorum == null) return;
+        Collection<Object> keys = quorum.keys.getOrDefault(packet.getAddress(), Collections.emptyList());
+        this.onBatchAnswer(packet.getOperation(), keys, null);
+    }
+
+    /**
+     * A batch of gets has been routed to us as we own its keys. The keys are read from the nodes of their preference
+     * lists, with a single packet per node, and the batch is answered once the read quorum of every key is reached.
+     * No lease is granted on the values read in batches.
+     * @param packet the packet received
+     */
+    private void onMultiGetPacket(MultiGetPacket packet) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        long operation = this.nextOperation++;
+        BatchQuorum quorum = new BatchQuorum(new MultiGetResponsePacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), packet.getSender(),
+                packet.getRequest(), null
+        ));
+
+        Map<Node, List<Object>> reads = new HashMap<>();
+        Map<Object, Versioned> local = new HashMap<>();
+        for (Object key : packet.getKeys()) {
+            List<Node> holders = placement.preferenceList(placement.position(key), this.replicationFactor);
+            quorum.remaining.put(key, Math.min(this.readQuorum, holders.size()));
+
+            this.coordinatedGets++;
+            if (this.keyRates != null && holders.get(0) == this.node.getLocalNode()) this.keyRates.offer(key);
+
+            for (Node holder : holders) {
+                if (holder != this.node.getLocalNode()) reads.computeIfAbsent(holder, n -> new ArrayList<>()).add(key);
+                else local.put(key, this.storage.get(key));
+            }
+        }
+        this.startBatchQuorum(operation, quorum);
+
+        reads.forEach((holder, keys) -> this.node.send(
+                holder, new BatchReadPacket(this.node.getLocalNode().getIndex(), operation, keys)
+        ));
+        if (!local.isEmpty()) this.onBatchAnswer(operation, local.keySet(), local);
+    }
+
+    private void onBatchReadPacket(BatchReadPacket packet) {
+        Map<Object, Versioned> values = new HashMap<>();
+        for (Object key : packet.getKeys()) values.put(key, this.storage.get(key));
+        this.node.send(Network.get(packet.getCoordinator()), new BatchReadResponsePacket(packet.getOperation(), values));
+    }
+
+    /**
+     * Wait for the answers to a batch we coordinate, until every key reaches its quorum or the timeout fires
+     * @param operation the id of the batch
+     * @param quorum the batch
+     */
+    private void startBatchQuorum(long operation, BatchQuorum quorum) {
+        this.pendingBatchQuorums.put(operation, quorum);
+        EDSimulator.add(
+                this.timeout, new QuorumTimeoutPacket(operation),
+                this.node.getLocalNode(), this.node.getApplicationPid()
+        );
+    }
+
+    /**
+     * A node answered for some keys of a batch we coordinate. Once every key reached its quorum, a single response is
+     * routed to the client, with the most recent version read of each key for a batch of gets.
+     * @param operation the id of the batch
+     * @param keys the keys the node answered for
+     * @param versions the versions read by the node, null for writes
+     */
+    private void onBatchAnswer(long operation, Collection<Object> keys, Map<Object, Versioned> versions) {
+        BatchQuorum quorum = this.pendingBatchQuorums.get(operation);
+        // answered after we left the ring
+        if (quorum == null || this.node.isIdle()) return;
+
+        for (Object key : keys) {
+            Versioned version = versions == null ? null : versions.get(key);
+            if (version != null) quorum.versions.merge(key, version, this.resolver::resolve);
+            quorum.remaining.computeIfPresent(key, (k, answers) -> answers > 1 ? answers - 1 : null);
+        }
+        if (!quorum.remaining.isEmpty() || quorum.summaryPending) return;
+
+        this.completeBatchQuorum(operation, quorum);
+    }
+
+    /**
+     * Route the response of a batch that reached its quorum to its client
+     * @param operation the id of the batch
+     * @param quorum the batch
+     */
+    private void completeBatchQuorum(long operation, BatchQuorum quorum) {
+        this.pendingBatchQuorums.remove(operation);
+        if (quorum.response instanceof MultiGetResponsePacket) {
+            MultiGetResponsePacket response = (MultiGetResponsePacket) quorum.response;
+            Map<Object, Object> values = new HashMap<>();
+            quorum.versions.forEach((key, version) -> {
+                // tombstones and expired versions are read as missing keys
+                if (!version.isTombstone() && !version.isExpired(CommonState.getTime())) {
+                    values.put(key, version.getValue());
+                }
+            });
+            this.node.route(new MultiGetResponsePacket(
+                    response.getSenderAddress(), response.getSender(), response.getTarget(),
+                    response.getRequest(), values
+            ));
+        } else {
+            this.node.route(quorum.response);
+        }
+    }
+
+    /**
+     * Version a write of a key we own
+     * @param key the key
+     * @param value the value, null for a delete
+     * @param expiration the simulation time at which the value expires
+     * @return the version of the write
+     */
+    private Versioned version(Object key, Object value, long expiration) {
+        this.clock.tick();
+        return this.resolver.write(
+                value, this.storage.get(key),
+                this.clock, this.node.getLocalNode().getIndex(), expiration
+        );
+    }
+
+    /**
+     * Tell the clients holding a lease and the additional replicas of a hot key that it has been written
+     * @param key the key
+     * @param version the version written
+     */
+    private void propagate(Object key, Versioned version) {
+        this.revokeLeases(key);
+
+        HotReplicaPacket hotReplicaPacket = new HotReplicaPacket(key, version);
+        for (Node hotReplica : DHTProject.getHotKeys().get(key)) this.node.send(hotReplica, hotReplicaPacket);
+    }
+
+    /**
+     * A write coordinated by the owner of a key, stored unless it was overtaken by a more recent write delivered first.
+     * The write is acknowledged in both cases, as the key holds a version at least as recent.
+     * @param packet the packet received
+     */
+    private void onReplicationPacket(ReplicationPacket packet) {
+        if (this.merge(packet.getKey(), packet.getValue())) {
+            this.logger.debug("Replicated storage for `{}`", packet.getKey());
+        } else {
+            this.staleWrites++;
+            this.logger.debug("Dropped a stale write of `{}`", packet.getKey());
+        }
+        this.node.send(Network.get(packet.getCoordinator()), new ReplicationAckPacket(packet.getOperation()));
+    }
+
+    /**
+     * The get packet has been routed to us as we own the key, we read it from the nodes of the preference list of the
+     * key and answer once the read quorum is reached. An additional replica of a hot key answers on its own.
+     * @param packet the packet received
+     */
+    private void onGetPacket(GetPacket packet) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        List<Node> holders = placement.preferenceList(placement.position(packet.getKey()), this.replicationFactor);
+
+        Versioned hotVersion = this.hotReplicas.get(packet.getKey());
+        if (hotVersion != null && !holders.contains(this.node.getLocalNode())) {
+            this.hotReplicaGets++;
+            this.node.route(new GetResponsePacket(
+                    this.node.getLocalNode().getIndex(),
+                    this.node.getId(), packet.getSender(),
+                    packet.getRequest(), packet.getKey(),
+                    hotVersion.isExpired(CommonState.getTime()) ? null : hotVersion.getValue()
+            ));
+            return;
+        }
+
+        this.coordinatedGets++;
+        if (this.keyRates != null && holders.get(0) == this.node.getLocalNode()) this.keyRates.offer(packet.getKey());
+
+        long operation = this.nextOperation++;
+        GetResponsePacket response = new GetResponsePacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), packet.getSender(),
+                packet.getRequest(), packet.getKey(), null
+        );
+        Quorum quorum = new Quorum(response, Math.min(this.readQuorum, holders.size()));
+        // only the owner sees every put of the key, hence is able to invalidate the leases, it revokes them on handoff
+        if (this.leaseDuration > 0 && holders.get(0) == this.node.getLocalNode()) quorum.client = packet.getSenderAddress();
+        this.startQuorum(operation, quorum);
+
+        ReadPacket readPacket = new ReadPacket(this.node.getLocalNode().getIndex(), operation, packet.getKey());
+        for (Node holder : holders) {
+            if (holder != this.node.getLocalNode()) this.node.send(holder, readPacket);
+        }
+
+        if (holders.contains(this.node.getLocalNode())) {
+            this.onQuorumAnswer(operation, this.storage.get(packet.getKey()));
+        }
+    }
+
+    /**
+     * The scan packet has been routed to us as we own the segment of the ring it starts at. We send the client the
+     * entries of the range we own, walking our following segments as long as we own them too, then forward the scan
+     * to the owner of the next segment unless the range, the limit or the ring is exhausted.
+     * @param packet the packet received
+     */
+    private void onScanPacket(ScanPacket packet) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        NavigableMap<Object, Versioned> sorted = (NavigableMap<Object, Versioned>) this.storage;
+        NodeId last = placement.position(packet.getTo());
+        long now = CommonState.getTime();
+
+        Map<Object, Object> entries = new LinkedHashMap<>();
+        NodeId start = packet.getStart();
+        NodeId end = placement.segmentEnd(start);
+        boolean done = false;
+        for (Map.Entry<Object, Versioned> entry : sorted.tailMap(packet.getFrom(), true).entrySet()) {
+            NodeId position = placement.position(entry.getKey());
+            // replicas of the previous segments, already scanned
+            if (position.compareTo(start) < 0) continue;
+            // the following segments are scanned as well as long as we own them
+            while (position.compareTo(end) > 0 && !end.equals(ConsistentHashRing.LAST_POSITION)
+                    && end.compareTo(last) < 0 && placement.ownerOf(end.offset(0)) == this.node.getLocalNode()) {
+                start = end.offset(0);
+                end = placement.segmentEnd(start);
+            }
+            // the next key we hold belongs to another node, which may hold keys we do not know of before it
+            if (position.compareTo(end) > 0) break;
+
+            if (sorted.comparator().compare(entry.getKey(), packet.getTo()) >= 0) {
+                done = true;
+                break;
+            }
+
+            Versioned version = entry.getValue();
+            if (version.isTombstone() || version.isExpired(now)) continue;
+
+            entries.put(entry.getKey(), version.getValue());
+            if (entries.size() == packet.getLimit()) {
+                done = true;
+                break;
+            }
+        }
+        done |= end.equals(ConsistentHashRing.LAST_POSITION) || end.compareTo(last) >= 0;
+
+        this.node.route(new ScanResponsePacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), packet.getSender(),
+                packet.getRequest(), packet.getSegment(), entries, done
+        ));
+        if (done) return;
+
+        NodeId next = end.offset(0);
+        this.node.route(new ScanPacket(
+                packet.getSenderAddress(),
+                packet.getSender(), getNodeId(placement.ownerOf(next)),
+                packet.getRequest(), packet.getSegment() + 1,
+                packet.getFrom(), packet.getTo(), next, packet.getLimit() - entries.size()
+        ));
+    }
+
+    /**
+     * Grant a lease on a key to a client
+     * @param key the key
+     * @param client the address of the client
+     * @param valueExpiration the expiration of the value, the lease does not outlive it
+     * @return the expiration of the lease
+     */
+    private long grantLease(Object key, int client, long valueExpiration) {
+        long expiration = Math.min(CommonState.getTime() + this.leaseDuration, valueExpiration);
+        this.leases.computeIfAbsent(key, k -> new HashMap<>()).put(client, expiration);
+        return expiration;
+    }
+
+    /**
+     * A key we own has been written, the clients holding a lease that did not expire yet are told to drop the value
+     * @param key the key
+     */
+    private void revokeLeases(Object key) {
+        Map<Integer, Long> clients = this.leases.remove(key);
+        if (clients == null) return;
+
+        InvalidateLeasePacket invalidation = new InvalidateLeasePacket(key);
+        clients.forEach((client, expiration) -> {
+            if (expiration > CommonState.getTime()) this.node.send(Network.get(client), invalidation);
+        });
+    }
+
+    /**
+     * The owner of a key we may hold a lease on told us it has been written. Gets of the key that are still waiting
+     * for their response must not cache it, as it may have been read before the write.
+     * @param packet the packet received
+     */
+    private void onInvalidateLeasePacket(InvalidateLeasePacket packet) {
+        this.leaseCache.invalidate(packet.getKey());
+        for (PendingGet pending : this.pendingGets.values()) {
+            if (pending.key.equals(packet.getKey())) pending.invalidated = true;
+        }
+    }
+
+    /**
+     * Periodically compare the rate of the keys we own to the threshold. As the gets of a hot key are spread over its
+     * owner and its additional replicas, its rate is estimated from the share of the gets that reached us. Rates are
+     * then halved, so they reflect the last few periods. The checks stop once we leave the ring.
+     */
+    private void onHotKeysTimerPacket() {
+        if (this.node.isIdle()) {
+            this.hotKeysScheduled = false;
+            return;
+        }
+
+        HotKeys hotKeys = DHTProject.getHotKeys();
+        ConsistentHashRing placement = DHTProject.getPlacement();
+
+        for (Map.Entry<Object, Long> entry : this.keyRates.counts().entrySet()) {
+            Object key = entry.getKey();
+            if (this.ownedHotKeys.contains(key) || entry.getValue() < this.hotKeysThreshold) continue;
+            List<Node> holders = placement.preferenceList(placement.position(key), this.replicationFactor);
+            if (!this.storage.containsKey(key) || holders.get(0) != this.node.getLocalNode()) continue;
+
+            List<Node> replicas = HotKeys.positions(key, this.hotKeysReplicas, holders);
+            if (replicas.isEmpty()) continue;
+
+            hotKeys.promote(key, replicas);
+            this.ownedHotKeys.add(key);
+            for (Node replica : replicas) this.node.send(replica, new HotReplicaPacket(key, this.storage.get(key)));
+            this.logger.info("Key `{}` is hot ({} gets), replicated on {} more nodes", key, entry.getValue(), replicas.size());
+        }
+
+        Iterator<Object> iterator = this.ownedHotKeys.iterator();
+        while (iterator.hasNext()) {
+            Object key = iterator.next();
+            long rate = this.keyRates.estimate(key) * (1 + hotKeys.get(key).size());
+            if (rate >= this.hotKeysThreshold / 2) continue;
+
+            this.demote(key);
+            iterator.remove();
+            this.logger.info("Key `{}` cooled down ({} gets), dropping its additional replicas", key, rate);
+        }
+
+        this.keyRates.decay();
+        EDSimulator.add(this.hotKeysPeriod, new HotKeysTimerPacket(), this.node.getLocalNode(), this.node.getApplicationPid());
+    }
+
+    /**
+     * Stop replicating a hot key on additional nodes
+     * @param key the key
+     */
+    private void demote(Object key) {
+        DropHotReplicaPacket drop = new DropHotReplicaPacket(key);
+        for (Node replica : DHTProject.getHotKeys().demote(key)) this.node.send(replica, drop);
+    }
+
+    /**
+     * Periodically compare the keys we share with one of the nodes following our virtual nodes, picked at random. As
+     * these nodes hold replicas of the keys we own, and we hold replicas of theirs, the replicas of every key converge
+     * through these exchanges even if some replication packets were lost or a node missed writes while joining. The
+     * exchanges stop once we leave the ring.
+     */
+    private void onAntiEntropyTimerPacket() {
+        if (this.node.isIdle()) {
+            this.antiEntropyScheduled = false;
+            return;
+        }
+
+        List<Node> neighbors = new ArrayList<>(DHTProject.getPlacement().successors(this.node.getLocalNode()));
+        if (!neighbors.isEmpty()) {
+            Node neighbor = neighbors.get(CommonState.r.nextInt(neighbors.size()));
+            this.antiEntropyExchanges++;
+            this.sendHashes(neighbor, this.merkleTree(neighbor), new int[]{1});
+        }
+
+        EDSimulator.add(
+                this.antiEntropyPeriod, new AntiEntropyTimerPacket(),
+                this.node.getLocalNode(), this.node.getApplicationPid()
+        );
+    }
+
+    /**
+     * A neighbor sent us the hashes of some nodes of its tree. We answer with the hashes of the children of the nodes
+     * that differ from ours, so both nodes go down the tree together. The entries of the differing leaves are sent
+     * right away, as well as those of the subtrees that are empty on one side, as their whole range must be sent.
+     * @param packet the packet received
+     */
+    private void onMerkleHashesPacket(MerkleHashesPacket packet) {
+        Node peer = Network.get(packet.getAddress());
+        MerkleTree tree = this.merkleTree(peer);
+        List<Integer> children = new ArrayList<>();
+        List<Integer> subtrees = new ArrayList<>();
+
+        for (int i = 0; i < packet.getIndexes().length; i++) {
+            int index = packet.getIndexes()[i];
+            long hash = tree.hash(index);
+            if (hash == packet.getHashes()[i]) continue;
+
+            if (tree.isLeaf(index) || hash == 0 || packet.getHashes()[i] == 0) {
+                subtrees.add(index);
+            } else {
+                children.add(2 * index);
+                children.add(2 * index + 1);
+            }
+        }
+
+        if (!children.isEmpty()) this.sendHashes(peer, tree, Ints.toArray(children));
+        if (!subtrees.isEmpty()) {
+            int[] indexes = Ints.toArray(subtrees);
+            this.sendEntries(peer, indexes, this.sharedEntries(peer, indexes, new HashMap<>()), false);
+        }
+    }
+
+    /**
+     * A neighbor sent us its entries of the subtrees that differ between us. We keep the most recent version of each
+     * key, then send back the entries the neighbor misses or holds stale.
+     * @param packet the packet received
+     */
+    private void onMerkleEntriesPacket(MerkleEntriesPacket packet) {
+        Node peer = Network.get(packet.getAddress());
+
+        packet.getEntries().forEach((key, version) -> {
+            if (this.shares(key, peer) && this.merge(key, version)) this.repairedKeys++;
+        });
+        if (packet.isReply()) return;
+
+        Map<Object, Versioned> entries = this.sharedEntries(peer, packet.getSubtrees(), packet.getEntries());
+        if (!entries.isEmpty()) this.sendEntries(peer, packet.getSubtrees(), entries, true);
+    }
+
+    /**
+     * Build the Merkle tree of the keys we share with another node
+     * @param peer the other node
+     * @return the tree of the keys both nodes should hold
+     */
+    private MerkleTree merkleTree(Node peer) {
+        return new MerkleTree(this.merkleDepth, this.storage, key -> this.shares(key, peer));
+    }
+
+    /**
+     * Find our entries in some subtrees that another node should hold too
+     * @param peer the other node
+     * @param subtrees the indexes of the roots of the subtrees
+     * @param known the entries the other node already holds, those it holds with the same value are skipped
+     * @return the entries to send
+     */
+    private Map<Object, Versioned> sharedEntries(Node peer, int[] subtrees, Map<Object, Versioned> known) {
+        Map<Object, Versioned> entries = new HashMap<>();
+
+        for (Map.Entry<Object, Versioned> entry : this.storage.entrySet()) {
+            if (entry.getValue().equals(known.get(entry.getKey()))) continue;
+            for (int subtree : subtrees) {
+                if (!MerkleTree.covers(this.merkleDepth, subtree, entry.getKey())) continue;
+                if (this.shares(entry.getKey(), peer)) entries.put(entry.getKey(), entry.getValue());
+                break;
+            }
+        }
+
+        return entries;
+    }
+
+    private void sendHashes(Node peer, MerkleTree tree, int[] indexes) {
+        long[] hashes = new long[indexes.length];
+        for (int i = 0; i < indexes.length; i++) hashes[i] = tree.hash(indexes[i]);
+
+        this.merkleHashesSent += indexes.length;
+        this.node.send(peer, new MerkleHashesPacket(this.node.getLocalNode().getIndex(), indexes, hashes));
+    }
+
+    private void sendEntries(Node peer, int[] subtrees, Map<Object, Versioned> entries, boolean reply) {
+        this.repairEntriesSent += entries.size();
+        this.node.send(peer, new MerkleEntriesPacket(this.node.getLocalNode().getIndex(), subtrees, entries, reply));
+    }
+
+    /**
+     * @return true if a key should be held by both this node and another one
+     */
+    private boolean shares(Object key, Node peer) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        List<Node> holders = placement.preferenceList(placement.position(key), this.replicationFactor);
+        return holders.contains(this.node.getLocalNode()) && holders.contains(peer);
+    }
+
+    /**
+     * Hold a version of a hot key for its owner, unless the version we hold is more recent: updates of the owner may be
+     * delivered out of order
+     * @param packet the packet received
+     */
+    private void onHotReplicaPacket(HotReplicaPacket packet) {
+        Versioned held = this.hotReplicas.get(packet.getKey());
+        Versioned kept = held == null ? packet.getValue() : this.resolver.resolve(held, packet.getValue());
+
+        if (kept == held) {
+            this.staleWrites++;
+            this.logger.debug("Dropped a stale hot replica of `{}`", packet.getKey());
+        } else {
+            this.hotReplicas.put(packet.getKey(), kept);
+        }
+    }
+
+    private void onReadPacket(ReadPacket packet) {
+        Versioned version = this.storage.get(packet.getKey());
+        this.node.send(Network.get(packet.getCoordinator()), new ReadResponsePacket(packet.getOperation(), version));
+    }
+
+    private void onReadResponsePacket(ReadResponsePacket packet) {
+        this.onQuorumAnswer(packet.getOperation(), packet.getValue());
+    }
+
+    /**
+     * Wait for the answers to an operation we coordinate, until they reach its quorum or the timeout fires
+     * @param operation the id of the operation
+     * @param quorum the operation
+     */
+    private void startQuorum(long operation, Quorum quorum) {
+        this.pendingQuorums.put(operation, quorum);
+        EDSimulator.add(
+                this.timeout, new QuorumTimeoutPacket(operation),
+                this.node.getLocalNode(), this.node.getApplicationPid()
+        );
+    }
+
+    /**
+     * Some nodes of the preference list did not answer in time, the operation is dropped and its client is told so
+     * @param packet the timeout fired
+     */
+    private void onQuorumTimeoutPacket(QuorumTimeoutPacket packet) {
+        Quorum quorum = this.pendingQuorums.remove(packet.getOperation());
+        BatchQuorum batch = this.pendingBatchQuorums.remove(packet.getOperation());
+        // reached, or dropped when we left the ring
+        if ((quorum == null && batch == null) || this.node.isIdle()) return;
+
+        // only a neighbor that crashed or left did not acknowledge the update of our summary
+        if (quorum != null && quorum.answers >= quorum.required) {
+            this.completeQuorum(packet.getOperation(), quorum);
+            return;
+        }
+        if (batch != null && batch.remaining.isEmpty()) {
+            this.completeBatchQuorum(packet.getOperation(), batch);
+            return;
+        }
+
+        this.logger.debug("Quorum not reached for operation {}", packet.getOperation());
+        RoutablePacket response = quorum != null ? quorum.response : batch.response;
+        long request = response instanceof GetResponsePacket ? ((GetResponsePacket) response).getRequest()
+                : response instanceof PutResponsePacket ? ((PutResponsePacket) response).getRequest()
+                : ((MultiGetResponsePacket) response).getRequest();
+        this.node.route(new OperationFailedPacket(
+                this.node.getLocalNode().getIndex(),
+                this.node.getId(), response.getTarget(),
+                request, "Quorum not reached"
+        ));
+    }
+
+    /**
+     * The coordinator of one of our operations did not reach its quorum in time. A write is failed, while a get is
+     * retried on the next node of the preference list of its key and the keys of a batch of gets are fetched one by
+     * one.
+     * @param packet the packet received
+     */
+    private void onOperationFailedPacket(OperationFailedPacket packet) {
+        long request = packet.getRequest();
+        if (this.pendingPuts.containsKey(request)) {
+            this.failPut(request, new TimeoutException(packet.getReason()));
+            return;
+        }
+
+        PendingBatch batch = this.pendingBatches.remove(request);
+        if (batch != null) {
+            this.splitBatch(batch);
+            return;
+        }
+
+        PendingGet pending = this.pendingGets.get(request);
+        if (pending != null) this.retryGet(request, pending);
+    }
+
+    /**
+     * A node of the preference list answered to an operation we coordinate. Once enough nodes answered, the response
+     * is routed to the client with the most recent version read. Answers received after the quorum has been reached
+     * are ignored.
+     * @param operation the id of the operation
+     * @param version the version read by the node, null for writes
+     */
+    private void onQuorumAnswer(long operation, Versioned version) {
+        Quorum quorum = this.pendingQuorums.get(operation);
+        // answered after we left the ring
+        if (quorum == null || this.node.isIdle()) return;
+
+        if (version != null) {
+            quorum.version = quorum.version == null ? version : this.resolver.resolve(quorum.version, version);
+        }
+        if (++quorum.answers < quorum.required || quorum.summaryPending) return;
+
+        this.completeQuorum(operation, quorum);
+    }
+
+    /**
+     * Route the response of an operation that reached its quorum to its client, with the most recent version read
+     * @param operation the id of the operation
+     * @param quorum the operation
+     */
+    private void completeQuorum(long operation, Quorum quorum) {
+        this.pendingQuorums.remove(operation);
+        if (quorum.response instanceof GetResponsePacket) {
+            GetResponsePacket response = (GetResponsePacket) quorum.response;
+            // tombstones and expired versions are read as missing keys
+            Object value = quorum.version == null || quorum.version.isExpired(CommonState.getTime())
+                    ? null
+                    : quorum.version.getValue();
+            long lease = quorum.client != Quorum.NO_CLIENT && value != null
+                    ? this.grantLease(response.getKey(), quorum.client, quorum.version.getExpiration())
+                    : GetResponsePacket.NO_LEASE;
+            this.node.route(new GetResponsePacket(
+                    response.getSenderAddress(), response.getSender(), response.getTarget(),
+                    response.getRequest(), response.getKey(), value, lease
+            ));
+            this.logger.debug("Found data for `{}`", response.getKey());
+        } else {
+            this.node.route(quorum.response);
+        }
+    }
+
+    /**
+     * @return the number of keys stored on this node, replicas included
+     */
+    public int size() {
+        return this.storage.size();
+    }
+
+    /**
+     * @return the keys stored on this node, replicas included
+     */
+    public Iterable<Object> keys() {
+        return this.storage.keySet();
+    }
+
+    /**
+     * Read a key from the storage of this node only, without going through the ring
+     * @param key the key
+     * @return the value stored on this node, null if it does not hold the key
+     */
+    public Object getLocal(Object key) {
+        Versioned version = this.storage.get(key);
+        return version == null || version.isExpired(CommonState.getTime()) ? null : version.getValue();
+    }
+
+    /**
+     * @return the number of nodes holding each key
+     */
+    public int getReplicationFactor() {
+        return this.replicationFactor;
+    }
+
+    /**
+     * @return the number of puts sent by this node that have not been acknowledged yet, so clients can throttle their
+     * writes
+     */
+    public int getPendingPuts() {
+        return this.pendingPuts.size();
+    }
+
+    /**
+     * @return the number of puts and deletes of this node that were not acknowledged in time or could not be routed
+     */
+    public long getFailedPuts() {
+        return this.failedPuts;
+    }
+
+    public ValueCache getPathCache() {
+        return this.pathCache;
+    }
+
+    public ValueCache getLeaseCache() {
+        return this.leaseCache;
+    }
+
+    /**
+     * @return the number of gets this node answered with no value, their key missing from the summary of their target
+     */
+    public long getSummaryMisses() {
+        return this.summaryMisses;
+    }
+
+    public LatencyRecorder getWriteLatencies() {
+        return this.writeLatencies;
+    }
+
+    public LatencyRecorder getReadLatencies() {
+        return this.readLatencies;
+    }
+
+    /**
+     * @return the number of get attempts sent by this node, retries included
+     */
+    public long getGetAttempts() {
+        return this.getAttempts;
+    }
+
+    /**
+     * @return the number of get attempts of this node that were not answered in time
+     */
+    public long getGetTimeouts() {
+        return this.getTimeouts;
+    }
+
+    /**
+     * @return the number of gets of this node that failed as none of their attempts was answered
+     */
+    public long getFailedGets() {
+        return this.failedGets;
+    }
+
+    /**
+     * @return the number of gets that reached this node as owner of their key
+     */
+    public long getCoordinatedGets() {
+        return this.coordinatedGets;
+    }
+
+    /**
+     * @return the number of gets answered by this node as additional replica of a hot key
+     */
+    public long getHotReplicaGets() {
+        return this.hotReplicaGets;
+    }
+
+    /**
+     * @return the number of hot keys of other nodes this node holds an additional replica of
+     */
+    public int getHotReplicas() {
+        return this.hotReplicas.size();
+    }
+
+    /**
+     * @return the number of tombstones stored on this node
+     */
+    public int getTombstones() {
+        int tombstones = 0;
+        for (Versioned version : this.storage.values()) {
+            if (version.isTombstone()) tombstones++;
+        }
+        return tombstones;
+    }
+
+    /**
+     * @return the number of values written with a time to live that this node dropped once expired
+     */
+    public long getExpiredValues() {
+        return this.expiredValues;
+    }
+
+    /**
+     * @return the number of tombstones this node dropped once the delete had time to reach every replica
+     */
+    public long getPurgedTombstones() {
+        return this.purgedTombstones;
+    }
+
+    /**
+     * @return the number of replication packets dropped by this node as it already held a more recent version
+     */
+    public long getStaleWrites() {
+        return this.staleWrites;
+    }
+
+    /**
+     * @return the number of concurrent versions merged by this node
+     */
+    public long getConflicts() {
+        return this.conflicts;
+    }
+
+    /**
+     * @return the number of anti-entropy exchanges started by this node
+     */
+    public long getAntiEntropyExchanges() {
+        return this.antiEntropyExchanges;
+    }
+
+    /**
+     * @return the number of Merkle tree hashes sent by this node during the anti-entropy exchanges
+     */
+    public long getMerkleHashesSent() {
+        return this.merkleHashesSent;
+    }
+
+    /**
+     * @return the number of entries sent by this node to repair the replicas of its neighbors
+     */
+    public long getRepairEntriesSent() {
+        return this.repairEntriesSent;
+    }
+
+    /**
+     * @return the number of keys this node stored or updated during the anti-entropy exchanges
+     */
+    public long getRepairedKeys() {
+        return this.repairedKeys;
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingGet {
+        private final CompletableFuture<Object> future;
+        private final Object key;
+
+        /**
+         * Simulation time at which the get was first sent
+         */
+        private final long start;
+
+        /**
+         * Index of the current attempt, hence of the node of the preference list it was sent to
+         */
+        private int attempt = 0;
+
+        /**
+         * Whether the owner invalidated the leases on the key since the get was sent
+         */
+        private boolean invalidated = false;
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingScan {
+        private final CompletableFuture<Integer> future;
+        private final BiConsumer<Object, Object> consumer;
+
+        /**
+         * Segments received before the previous ones, by index
+         */
+        private final Map<Integer, ScanResponsePacket> early = new HashMap<>();
+
+        /**
+         * Index of the next segment to hand to the consumer
+         */
+        private int segment = 0;
+
+        /**
+         * Number of entries handed to the consumer so far
+         */
+        private int entries = 0;
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingPut {
+        private final CompletableFuture<Void> future;
+
+        /**
+         * Simulation time at which the put was sent
+         */
+        private final long start;
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingBatch {
+        private final CompletableFuture<Map<Object, Object>> future;
+        private final List<Object> keys;
+
+        /**
+         * Simulation time at which the batch was sent
+         */
+        private final long start;
+    }
+
+    /**
+     * A batch of operations coordinated by this node, waiting for enough nodes of the preference list of each of its
+     * keys to answer
+     */
+    @RequiredArgsConstructor
+    private static class BatchQuorum {
+        /**
+         * The response to route to the client once every key reached its quorum
+         */
+        private final RoutablePacket response;
+
+        /**
+         * Number of answers still needed by each key, the keys that reached their quorum being removed
+         */
+        private final Map<Object, Integer> remaining = new HashMap<>();
+
+        /**
+         * Most recent version read of each key
+         */
+        private final Map<Object, Versioned> versions = new HashMap<>();
+
+        /**
+         * Keys of the batch sent to each node, by address, so we know which keys an acknowledgment is for
+         */
+        private final Map<Integer, Collection<Object>> keys = new HashMap<>();
+
+        /**
+         * Whether the batch waits for our neighbors to receive the keys we stored for it
+         */
+        private boolean summaryPending = false;
+    }
+
+    /**
+     * An operation coordinated by this node, waiting for enough nodes of the preference list to answer
+     */
+    @RequiredArgsConstructor
+    private static class Quorum {
+        private static final int NO_CLIENT = -1;
+
+        /**
+         * The response to route to the client once the quorum is reached
+         */
+        private final RoutablePacket response;
+        private final int required;
+        private int answers = 0;
+        private Versioned version = null;
+
+        /**
+         * Address of the client to grant a lease on the value to, {@link #NO_CLIENT} for no lease
+         */
+        private int client = NO_CLIENT;
+
+        /**
+         * Whether the operation waits for our neighbors to receive the key we stored for it
+         */
+        private boolean summaryPending = false;
+    }
+
+    /**
+     * An update of our summary, waiting for the acknowledgment of our neighbors
+     */
+    private static class SummaryUpdate {
+        /**
+         * Number of neighbors that did not acknowledge the update yet
+         */
+        private int remaining;
+
+        /**
+         * The writes to acknowledge once every neighbor received the update
+         */
+        private final List<Long> operations;
+
+        private SummaryUpdate(int neighbors, List<Long> operations) {
+            this.remaining = neighbors;
+            this.operations = operations;
+        }
+    }
+
+    private void setNode(Node node) {
+        this.node = (RoutingEngine) node.getProtocol(this.transportProtocolId);
+        this.storage = DHTProject.getPlacement().isOrdered()
+                ? new ConcurrentSkipListMap<>(ConsistentHashRing.KEY_ORDER)
+                : new HashMap<>();
+        this.logger = LoggerFactory.getLogger(String.format(
+                "HashTable %016x (Node %d)",
+                this.node.getId().getHigh(), node.getIndex()
+        ));
     }
 }
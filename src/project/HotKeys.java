@@ -0,0 +1,67 @@
+package project;
+
+import lombok.Getter;
+import peersim.core.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keys the owners of which decided to replicate on additional nodes because they receive too many gets. The additional
+ * replicas are found by hashing the key with a salt, so they are spread over the ring instead of following the
+ * regular holders of the key.
+ *
+ * <p>One table is shared by all the nodes, so clients find the extra replicas without any announcement from the owner.
+ */
+@Getter
+public class HotKeys {
+    private final Map<Object, List<Node>> replicas = new HashMap<>();
+    private long promotions = 0;
+    private long demotions = 0;
+
+    /**
+     * Find the nodes that should hold the additional replicas of a key
+     * @param key the key
+     * @param count the number of additional replicas
+     * @param holders the regular holders of the key, which are skipped
+     * @return at most {@code count} distinct nodes that are not regular holders of the key
+     */
+    public static List<Node> positions(Object key, int count, List<Node> holders) {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        List<Node> nodes = new ArrayList<>(count);
+
+        // a few more salts than needed, as some positions fall on the regular holders
+        for (int salt = 1; salt <= 2 * count && nodes.size() < count; salt++) {
+            Node node = placement.ownerOf(ConsistentHashRing.hash(key + "#" + salt));
+            if (!holders.contains(node) && !nodes.contains(node)) nodes.add(node);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * @param key the key
+     * @return the additional replicas of the key, empty if the key is not hot
+     */
+    public List<Node> get(Object key) {
+        return this.replicas.getOrDefault(key, Collections.emptyList());
+    }
+
+    public boolean isHot(Object key) {
+        return this.replicas.containsKey(key);
+    }
+
+    public void promote(Object key, List<Node> nodes) {
+        this.replicas.put(key, nodes);
+        this.promotions++;
+    }
+
+    public List<Node> demote(Object key) {
+        List<Node> nodes = this.replicas.remove(key);
+        if (nodes != null) this.demotions++;
+        return nodes == null ? Collections.emptyList() : nodes;
+    }
+}
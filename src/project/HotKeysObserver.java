@@ -0,0 +1,58 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.config.Configuration;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.core.Node;
+import peersim.util.IncrementalStats;
+
+import java.util.List;
+import java.util.Map;
+
+import static project.Utils.getRoutingEngine;
+
+/**
+ * Report the hot keys replicated on additional nodes and how the gets are spread among the nodes, counting both the
+ * gets coordinated as owner and the gets answered as additional replica.
+ */
+@Slf4j(topic = "Hot Keys Observer")
+public class HotKeysObserver implements Control {
+    private final int hashTableProtocolId;
+
+    public HotKeysObserver(String prefix) {
+        this.hashTableProtocolId = Configuration.getPid(prefix + ".application");
+    }
+
+    @Override
+    public boolean execute() {
+        HotKeys hotKeys = DHTProject.getHotKeys();
+        for (Map.Entry<Object, List<Node>> entry : hotKeys.getReplicas().entrySet()) {
+            log.debug("Hot key `{}`: {} additional replicas", entry.getKey(), entry.getValue().size());
+        }
+        log.info(
+                "Hot keys: {} promotions, {} demotions, {} keys currently replicated on additional nodes",
+                hotKeys.getPromotions(), hotKeys.getDemotions(), hotKeys.getReplicas().size()
+        );
+
+        IncrementalStats served = new IncrementalStats();
+        long hotReplicaGets = 0;
+        for (int i = 0; i < Network.size(); i++) {
+            Node node = Network.get(i);
+            if (getRoutingEngine(node).isIdle()) continue;
+
+            HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
+            served.add(table.getCoordinatedGets() + table.getHotReplicaGets());
+            hotReplicaGets += table.getHotReplicaGets();
+        }
+
+        log.info(
+                "Gets served per node: mean={} max={} (max/mean={}), {} answered by additional replicas",
+                String.format("%.2f", served.getAverage()), served.getMax(),
+                String.format("%.2f", served.getAverage() == 0 ? 0 : served.getMax() / served.getAverage()),
+                hotReplicaGets
+        );
+
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+package project;
+
+import peersim.core.CommonState;
+
+/**
+ * Hybrid logical clock of a node. Its physical part follows the clock of the node, which may be ahead of the
+ * simulation time by a fixed skew, and never goes backwards even when the node hears of a timestamp from a node with a
+ * faster clock. Its logical part orders the events sharing the same physical time, so the timestamps of causally
+ * related writes are always ordered.
+ */
+public class HybridClock {
+    /**
+     * Offset of the physical clock of the node from the simulation time
+     */
+    private final long skew;
+
+    private long time = 0;
+    private int counter = 0;
+
+    public HybridClock(long skew) {
+        this.skew = skew;
+    }
+
+    /**
+     * Advance the clock for a local event, such as a write coordinated by the node
+     */
+    public void tick() {
+        long physical = CommonState.getTime() + this.skew;
+        if (physical > this.time) {
+            this.time = physical;
+            this.counter = 0;
+        } else {
+            this.counter++;
+        }
+    }
+
+    /**
+     * Advance the clock past a timestamp received from another node
+     * @param time the physical part of the timestamp
+     * @param counter the logical part of the timestamp
+     */
+    public void update(long time, int counter) {
+        long physical = CommonState.getTime() + this.skew;
+        long max = Math.max(physical, Math.max(this.time, time));
+
+        if (max == this.time && max == time) this.counter = Math.max(this.counter, counter) + 1;
+        else if (max == this.time) this.counter++;
+        else if (max == time) this.counter = counter + 1;
+        else this.counter = 0;
+        this.time = max;
+    }
+
+    public long getTime() {
+        return this.time;
+    }
+
+    public int getCounter() {
+        return this.counter;
+    }
+}
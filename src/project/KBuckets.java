@@ -0,0 +1,134 @@
+package project;
+
+import peersim.core.Node;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import static project.Utils.getNodeId;
+
+/**
+ * Kademlia routing table. The bucket {@code i} holds at most {@code k} nodes whose XOR distance to our id has its most
+ * significant bit at index {@code i}, hence nodes sharing a prefix of {@code 127 - i} bits with us. Each bucket is
+ * ordered from the least recently seen node to the most recently seen one.
+ *
+ * <p>When the latency to the other nodes reflects a topology, a full bucket trades its farthest node for a closer one,
+ * as any node of a bucket brings a lookup equally closer to its target.
+ */
+public class KBuckets {
+    private final NodeId id;
+    private final int k;
+
+    /**
+     * Latency from the owner of the table to a node, null to keep the nodes regardless of their latency
+     */
+    private final ToLongFunction<Node> latency;
+
+    /**
+     * Buckets indexed by the most significant bit of the distance, created when a first node falls in them
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Node>[] buckets = new List[128];
+
+    public KBuckets(NodeId id, int k, ToLongFunction<Node> latency) {
+        this.id = id;
+        this.k = k;
+        this.latency = latency;
+    }
+
+    /**
+     * A node has been seen, it is moved at the end of its bucket. If the bucket is full, its least recently seen node
+     * that is not alive anymore is replaced. Otherwise the new node replaces the farthest node of the bucket if it is
+     * closer, or is dropped as Kademlia favors long lived nodes.
+     * @param node the node
+     * @param alive whether a node answers, standing for the ping of Kademlia
+     */
+    public void update(Node node, Predicate<Node> alive) {
+        int index = this.id.xor(getNodeId(node)).highestBit();
+        if (index < 0) return; // ourselves
+
+        if (this.buckets[index] == null) this.buckets[index] = new ArrayList<>(this.k);
+        List<Node> bucket = this.buckets[index];
+
+        if (bucket.remove(node) || bucket.size() < this.k) {
+            bucket.add(node);
+            return;
+        }
+
+        for (int i = 0; i < bucket.size(); i++) {
+            if (!alive.test(bucket.get(i))) {
+                bucket.remove(i);
+                bucket.add(node);
+                return;
+            }
+        }
+
+        if (this.latency == null) return;
+
+        int farthest = 0;
+        for (int i = 1; i < bucket.size(); i++) {
+            if (this.latency.applyAsLong(bucket.get(i)) > this.latency.applyAsLong(bucket.get(farthest))) farthest = i;
+        }
+        if (this.latency.applyAsLong(node) < this.latency.applyAsLong(bucket.get(farthest))) {
+            bucket.remove(farthest);
+            bucket.add(node);
+        }
+    }
+
+    public void remove(Node node) {
+        int index = this.id.xor(getNodeId(node)).highestBit();
+        if (index >= 0 && this.buckets[index] != null) this.buckets[index].remove(node);
+    }
+
+    /**
+     * Find a node from its id
+     * @param target the id of the node
+     * @return the node, or null if it is not in our buckets
+     */
+    public Node get(NodeId target) {
+        int index = this.id.xor(target).highestBit();
+        if (index < 0 || this.buckets[index] == null) return null;
+
+        for (Node node : this.buckets[index]) {
+            if (getNodeId(node).equals(target)) return node;
+        }
+        return null;
+    }
+
+    /**
+     * Find the known nodes that are the closest to a target
+     * @param target the target id
+     * @param count the maximum number of nodes to return
+     * @param alive whether a node should be considered
+     * @return the closest nodes, closest first
+     */
+    public List<Node> closest(NodeId target, int count, Predicate<Node> alive) {
+        List<Node> nodes = new ArrayList<>();
+        for (List<Node> bucket : this.buckets) {
+            if (bucket != null) bucket.stream().filter(alive).forEach(nodes::add);
+        }
+
+        return nodes.stream()
+                .sorted(Comparator.comparing(node -> getNodeId(node).xor(target)))
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    public int size() {
+        int size = 0;
+        for (List<Node> bucket : this.buckets) {
+            if (bucket != null) size += bucket.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (List<Node> bucket : this.buckets) {
+            if (bucket != null) bucket.clear();
+        }
+    }
+}
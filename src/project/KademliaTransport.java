@@ -0,0 +1,412 @@
+package project;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import peersim.config.Configuration;
+import peersim.core.Network;
+import peersim.core.Node;
+import peersim.edsim.EDSimulator;
+import project.protocol.ApplicationPacket;
+import project.protocol.Packet;
+import project.protocol.Packet.FindNodePacket;
+import project.protocol.Packet.FindNodeTimeoutPacket;
+import project.protocol.Packet.FoundNodesPacket;
+import project.protocol.RoutablePacket;
+import project.protocol.RoutablePacket.MessagePacket;
+import project.protocol.RoutablePacket.UndeliverableRoutablePacket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkState;
+import static project.Utils.getNodeId;
+import static project.Utils.getRoutingEngine;
+
+/**
+ * Kademlia overlay, an alternative to the ring of {@link Transport}. Each node keeps k-buckets of the nodes it heard
+ * of, ordered by XOR distance. A packet whose target is not in our buckets triggers an iterative lookup: the
+ * {@code alpha} known nodes that are the closest to the target are asked for the closest nodes they know, and the
+ * closest answers are queried in turn, until the target is found or the {@code k} closest nodes have all answered.
+ * The packet is then sent directly to the target.
+ *
+ * <p>Bucket entries are checked against the global {@link Node#isUp()}, standing in for the pings evicting dead contacts.
+ */
+@Getter
+public class KademliaTransport implements RoutingEngine, peersim.transport.Transport {
+    private final String prefix;
+
+    /**
+     * The protocol id of this layer
+     */
+    private final int targetPid;
+
+    private final int applicationPid;
+
+    /**
+     * Size of the buckets and of the result of a lookup
+     */
+    private final int k;
+
+    /**
+     * Number of requests a lookup keeps in flight
+     */
+    private final int alpha;
+
+    /**
+     * Time after which a node that did not answer a request is given up
+     */
+    private final long timeout;
+
+    private boolean idle = true;
+    private Node localNode = null;
+    private final NodeId id = NodeId.random();
+    private final KBuckets buckets;
+
+    /**
+     * Latency of the links to the other nodes, used to fill the buckets with the closest nodes when it reflects a
+     * topology
+     */
+    private final Underlay underlay;
+
+    /**
+     * Lookups in progress, by id, and the id of the lookup in progress for each target
+     */
+    private final Map<Long, Lookup> lookups = new HashMap<>();
+    private final Map<NodeId, Long> lookupsByTarget = new HashMap<>();
+    private long nextLookup = 0;
+
+    private long routingMessages = 0;
+    private long deliveredPackets = 0;
+
+    private Logger logger = LoggerFactory.getLogger(String.format("Kademlia %016x", id.getHigh()));
+
+    public KademliaTransport(String prefix) {
+        this.prefix = prefix;
+        this.targetPid = Configuration.getPid(prefix + ".target");
+        this.applicationPid = Configuration.getPid(prefix + ".application");
+        this.k = Configuration.getInt(prefix + ".k", 20);
+        this.alpha = Configuration.getInt(prefix + ".alpha", 3);
+        this.timeout = Configuration.getLong(prefix + ".timeout", 4 * Configuration.getLong(prefix + ".maxdelay"));
+        this.underlay = new Underlay(prefix);
+        this.buckets = new KBuckets(
+                this.id, this.k,
+                this.underlay.isProximityAware() ? node -> this.underlay.getLatency(this.localNode, node) : null
+        );
+    }
+
+    @Override
+    public Object clone() {
+        return new KademliaTransport(this.prefix);
+    }
+
+    @Override
+    public void send(Node src, Node dest, Object packet, int pid) {
+        EDSimulator.add(getLatency(src, dest), packet, dest, pid);
+    }
+
+    @Override
+    public void send(Node dest, Packet packet) {
+        this.send(this.localNode, dest, packet, this.targetPid);
+    }
+
+    public void sendToApplication(Object packet) {
+        EDSimulator.add(0, packet, this.localNode, this.applicationPid);
+    }
+
+    @Override
+    public void processEvent(Node node, int pid, Object event) {
+        if (event instanceof FindNodePacket) this.onFindNodePacket((FindNodePacket) event);
+        else if (event instanceof FoundNodesPacket) this.onFoundNodesPacket((FoundNodesPacket) event);
+        else if (event instanceof FindNodeTimeoutPacket) this.onFindNodeTimeoutPacket((FindNodeTimeoutPacket) event);
+        else if (event instanceof RoutablePacket) this.onRoutablePacket((RoutablePacket) event);
+        else if (event instanceof ApplicationPacket) this.sendToApplication(event);
+        else throw new IllegalArgumentException("Event not recognized: " + event);
+    }
+
+    /**
+     * A routable packet has been sent to us directly, once its sender found us
+     * @param packet the packet received
+     */
+    private void onRoutablePacket(RoutablePacket packet) {
+        if (this.isIdle()) {
+            // we left meanwhile, let a node of the overlay route the packet
+            this.send(DHTProject.getRandomAwakenNode(), packet);
+            return;
+        }
+        this.route(packet);
+    }
+
+    @Override
+    public void route(RoutablePacket packet) {
+        if (this.isIdle()) throw new IllegalStateException("Node in idle state");
+
+        // the sender is a node we now know about
+        this.seen(Network.get(packet.getSenderAddress()));
+
+        NodeId target = packet.getTarget();
+        if (this.id.equals(target)) {
+            this.handleRoutablePacket(packet);
+            return;
+        }
+
+        Node node = this.buckets.get(target);
+        if (node != null && this.isAlive(node)) {
+            this.forward(node, packet);
+            return;
+        }
+
+        Long running = this.lookupsByTarget.get(target);
+        if (running != null) this.lookups.get(running).packets.add(packet);
+        else this.startLookup(target, packet, false);
+    }
+
+    private void forward(Node next, RoutablePacket packet) {
+        this.routingMessages++;
+        this.send(next, packet);
+    }
+
+    private void handleRoutablePacket(RoutablePacket packet) {
+        this.deliveredPackets++;
+        if (packet instanceof MessagePacket) {
+            this.logger.info("Received a message from {}: {}", packet.getSender(), ((MessagePacket) packet).getMessage());
+        }
+        if (packet instanceof UndeliverableRoutablePacket) {
+            UndeliverableRoutablePacket undeliverable = (UndeliverableRoutablePacket) packet;
+            this.logger.error(
+                    "Was not able to deliver a message to {}: {}",
+                    undeliverable.getOriginalPacket().getTarget(), undeliverable.getReason()
+            );
+            if (undeliverable.getOriginalPacket() instanceof ApplicationPacket) this.sendToApplication(packet);
+        }
+        if (packet instanceof ApplicationPacket) this.sendToApplication(packet);
+    }
+
+    @Override
+    public void sendMessage(NodeId target, String message) {
+        this.route(new MessagePacket(this.localNode.getIndex(), this.id, target, message));
+    }
+
+    /**
+     * Start an iterative lookup from the closest nodes of our buckets
+     * @param target the id to look for
+     * @param packet the packet to send to the target once found, null if none
+     * @param joining whether this is the lookup of our own id, done to join the overlay
+     */
+    private void startLookup(NodeId target, RoutablePacket packet, boolean joining) {
+        long id = this.nextLookup++;
+        Lookup lookup = new Lookup(target, joining);
+        if (packet != null) lookup.packets.add(packet);
+        this.lookups.put(id, lookup);
+        this.lookupsByTarget.put(target, id);
+
+        for (Node node : this.buckets.closest(target, this.k, this::isAlive)) lookup.add(node);
+        this.queryNext(id, lookup);
+    }
+
+    /**
+     * Send requests to the closest nodes that have not been queried yet, up to {@link #alpha} requests in flight. The
+     * lookup ends once the {@link #k} closest nodes found have all been queried and answered or timed out.
+     * @param id the id of the lookup
+     * @param lookup the lookup
+     */
+    private void queryNext(long id, Lookup lookup) {
+        int rank = 0;
+        for (Node node : lookup.shortlist.values()) {
+            if (rank++ == this.k || lookup.pending.size() == this.alpha) break;
+            if (!lookup.queried.add(node.getIndex())) continue;
+
+            lookup.pending.add(node.getIndex());
+            this.routingMessages++;
+            this.send(node, new FindNodePacket(this.localNode.getIndex(), id, lookup.target));
+            EDSimulator.add(
+                    this.timeout, new FindNodeTimeoutPacket(id, node.getIndex()),
+                    this.localNode, this.targetPid
+            );
+        }
+
+        if (lookup.pending.isEmpty()) this.finishLookup(id, lookup, null);
+    }
+
+    /**
+     * A node is looking for the nodes we know that are the closest to a target
+     * @param packet the packet received
+     */
+    private void onFindNodePacket(FindNodePacket packet) {
+        Node sender = Network.get(packet.getAddress());
+        if (!this.isIdle()) this.seen(sender);
+
+        int[] closest = this.buckets.closest(packet.getTarget(), this.k, this::isAlive).stream()
+                .mapToInt(Node::getIndex)
+                .toArray();
+        this.send(sender, new FoundNodesPacket(this.localNode.getIndex(), packet.getLookup(), closest));
+    }
+
+    /**
+     * A node answered one of our lookups. The target is reached if it is among the nodes it knows, otherwise the
+     * lookup goes on with the closest nodes found so far.
+     * @param packet the packet received
+     */
+    private void onFoundNodesPacket(FoundNodesPacket packet) {
+        Lookup lookup = this.lookups.get(packet.getLookup());
+        if (lookup == null) return; // the lookup already ended
+
+        Node sender = Network.get(packet.getAddress());
+        if (lookup.pending.remove(packet.getAddress())) this.seen(sender);
+
+        for (int address : packet.getNodes()) {
+            Node node = Network.get(address);
+            if (node == this.localNode) continue;
+            if (getNodeId(node).equals(lookup.target)) {
+                this.finishLookup(packet.getLookup(), lookup, node);
+                return;
+            }
+            lookup.add(node);
+        }
+
+        this.queryNext(packet.getLookup(), lookup);
+    }
+
+    private void onFindNodeTimeoutPacket(FindNodeTimeoutPacket packet) {
+        Lookup lookup = this.lookups.get(packet.getLookup());
+        if (lookup == null || !lookup.pending.remove(packet.getAddress())) return;
+
+        this.logger.debug("Node {} did not answer, removing it from the buckets", packet.getAddress());
+        this.buckets.remove(Network.get(packet.getAddress()));
+        this.queryNext(packet.getLookup(), lookup);
+    }
+
+    /**
+     * Send the packets waiting for a lookup to its target, or notify their senders that the target does not exist
+     * @param id the id of the lookup
+     * @param lookup the lookup
+     * @param target the node found, null if it was not found
+     */
+    private void finishLookup(long id, Lookup lookup, Node target) {
+        this.lookups.remove(id);
+        this.lookupsByTarget.remove(lookup.target);
+
+        if (target != null) {
+            this.seen(target);
+            lookup.packets.forEach(packet -> this.forward(target, packet));
+        } else {
+            for (RoutablePacket packet : lookup.packets) {
+                this.logger.error("Node {} not found", packet.getTarget());
+                if (packet instanceof UndeliverableRoutablePacket) continue;
+                this.route(new UndeliverableRoutablePacket(
+                        this.localNode.getIndex(), this.id,
+                        packet.getSender(), "Node not found", packet
+                ));
+            }
+        }
+
+        if (lookup.joining) this.onJoined();
+    }
+
+    /**
+     * Called from the initializer to wake up this node, it joins the overlay by looking up its own id through a node
+     * that is already part of it, which fills our buckets and makes the nodes close to us learn about us
+     */
+    @Override
+    public void awake(Node localNode) {
+        checkState(this.isIdle(), "The node is already awaken");
+
+        this.localNode = localNode;
+        this.updateLogger();
+
+        Node bootstrap = DHTProject.getRandomAwakenNode();
+        this.logger.debug("Joining through node {} ({})", bootstrap.getIndex(), getNodeId(bootstrap));
+        this.buckets.update(bootstrap, this::isAlive);
+        this.startLookup(this.id, null, true);
+    }
+
+    @Override
+    public void awakeAsInitialNode(Node localNode) {
+        checkState(this.isIdle(), "The node is already awaken");
+
+        this.localNode = localNode;
+        this.updateLogger();
+        this.onJoined();
+        this.logger.info("Awaken as initial node");
+    }
+
+    private void onJoined() {
+        this.idle = false;
+        DHTProject.getAwakenNodes().add(this.localNode);
+        this.logger.debug("Joined the overlay, {} nodes in the buckets", this.buckets.size());
+        this.sendToApplication(new ApplicationPacket.InitApplication(true));
+    }
+
+    @Override
+    public void leave() {
+        checkState(!this.isIdle(), "Cannot leave as the node is not part of the overlay");
+        this.logger.info("Leaving the overlay");
+
+        this.idle = true;
+        DHTProject.getAwakenNodes().remove(this.localNode);
+        this.buckets.clear();
+        this.sendToApplication(new ApplicationPacket.LeaveApplication());
+    }
+
+    private void seen(Node node) {
+        if (node != this.localNode) this.buckets.update(node, this::isAlive);
+    }
+
+    private boolean isAlive(Node node) {
+        return node.isUp() && !getRoutingEngine(node).isIdle();
+    }
+
+    private void updateLogger() {
+        this.logger = LoggerFactory.getLogger(String.format(
+                "Kademlia %016x (Node %d)",
+                this.id.getHigh(), this.localNode.getIndex()
+        ));
+    }
+
+    @Override
+    public long getLatency(Node src, Node dest) {
+        return this.underlay.getLatency(src, dest);
+    }
+
+    /**
+     * An iterative lookup in progress
+     */
+    private static class Lookup {
+        private final NodeId target;
+
+        /**
+         * Nodes found so far, by distance to the target
+         */
+        private final TreeMap<NodeId, Node> shortlist = new TreeMap<>();
+
+        /**
+         * Addresses of the nodes already queried, and of those we are still waiting for
+         */
+        private final Set<Integer> queried = new HashSet<>();
+        private final Set<Integer> pending = new HashSet<>();
+
+        /**
+         * Packets to send to the target once found
+         */
+        private final List<RoutablePacket> packets = new ArrayList<>();
+
+        /**
+         * Whether this is the lookup of our own id, done to join the overlay
+         */
+        private final boolean joining;
+
+        private Lookup(NodeId target, boolean joining) {
+            this.target = target;
+            this.joining = joining;
+        }
+
+        private void add(Node node) {
+            this.shortlist.put(getNodeId(node).xor(this.target), node);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package project;
+
+import lombok.Value;
+
+/**
+ * Snapshot of the keys stored by a node, sent to its neighbors along with the stabilization of the ring. A neighbor
+ * routing a get to this node answers it right away if the key is not in the summary. Keys written to the node since
+ * the snapshot are sent to the neighbors as they are stored, and summaries are only trusted for a limited time.
+ */
+@Value
+public class KeySummary {
+    /**
+     * Address of the node the keys of which are summarized
+     */
+    int address;
+
+    /**
+     * Simulation time of the snapshot
+     */
+    long time;
+
+    BloomFilter keys;
+}
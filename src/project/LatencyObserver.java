@@ -0,0 +1,60 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.config.Configuration;
+import peersim.core.Control;
+import peersim.core.Network;
+
+/**
+ * Report the end-to-end latency of the puts and gets of the hash table, aggregated over every node, along with the
+ * number of puts that are still waiting for their acknowledgment or failed, the rate of get attempts that timed out
+ * and the number of gets answered from the leases of the clients.
+ */
+@Slf4j(topic = "Latency Observer")
+public class LatencyObserver implements Control {
+    private final int hashTableProtocolId;
+
+    public LatencyObserver(String prefix) {
+        this.hashTableProtocolId = Configuration.getPid(prefix + ".application");
+    }
+
+    @Override
+    public boolean execute() {
+        LatencyRecorder writes = new LatencyRecorder();
+        LatencyRecorder reads = new LatencyRecorder();
+        int pending = 0;
+        long failedPuts = 0;
+        long attempts = 0, timeouts = 0, failures = 0;
+        long leaseHits = 0, leaseInvalidations = 0;
+
+        for (int i = 0; i < Network.size(); i++) {
+            HashTable table = (HashTable) Network.get(i).getProtocol(this.hashTableProtocolId);
+            writes.merge(table.getWriteLatencies());
+            pending += table.getPendingPuts();
+            failedPuts += table.getFailedPuts();
+            reads.merge(table.getReadLatencies());
+            attempts += table.getGetAttempts();
+            timeouts += table.getGetTimeouts();
+            failures += table.getFailedGets();
+            leaseHits += table.getLeaseCache().getHits();
+            leaseInvalidations += table.getLeaseCache().getInvalidations();
+        }
+
+        log.info(
+                "Write latency over {} acknowledged puts: p50={} p90={} p99={} max={} ({} puts pending, {} failed)",
+                writes.count(), writes.percentile(50), writes.percentile(90), writes.percentile(99),
+                writes.percentile(100), pending, failedPuts
+        );
+        log.info(
+                "Read latency over {} successful gets: p50={} p90={} p99={} max={}",
+                reads.count(), reads.percentile(50), reads.percentile(90), reads.percentile(99), reads.percentile(100)
+        );
+        log.info(
+                "Get attempts: {} sent, {} timed out (rate={}), {} gets failed",
+                attempts, timeouts, String.format("%.4f", attempts == 0 ? 0 : timeouts / (double) attempts), failures
+        );
+        log.info("Gets answered locally under a lease: {}, {} leases invalidated", leaseHits, leaseInvalidations);
+
+        return false;
+    }
+}
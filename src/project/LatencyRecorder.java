@@ -0,0 +1,42 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * Record latencies, in simulation time units, to report their percentiles at the end of the simulation. Every sample
+ * is kept, which is fine for the few thousand operations of a run and gives exact percentiles.
+ */
+public class LatencyRecorder {
+    private long[] samples = new long[64];
+    private int count = 0;
+
+    public void record(long latency) {
+        if (this.count == this.samples.length) this.samples = Arrays.copyOf(this.samples, this.count * 2);
+        this.samples[this.count++] = latency;
+    }
+
+    /**
+     * Add the samples of another recorder to this one, used to aggregate the recorders of every node
+     * @param other the recorder to merge
+     */
+    public void merge(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) this.record(other.samples[i]);
+    }
+
+    public int count() {
+        return this.count;
+    }
+
+    /**
+     * Compute a percentile with the nearest-rank method
+     * @param percentile the percentile, between 0 (excluded) and 100
+     * @return the smallest sample greater than or equal to the given percentage of the samples, 0 if there is none
+     */
+    public long percentile(double percentile) {
+        if (this.count == 0) return 0;
+
+        Arrays.sort(this.samples, 0, this.count);
+        int rank = (int) Math.ceil(percentile / 100 * this.count);
+        return this.samples[Math.max(rank, 1) - 1];
+    }
+}
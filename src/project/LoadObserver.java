@@ -0,0 +1,75 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.config.Configuration;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.core.Node;
+import peersim.util.IncrementalStats;
+
+import java.util.Map;
+
+import static project.Utils.getRoutingEngine;
+
+/**
+ * Report how the keys of the hash table are spread among the nodes of the ring. For each node we log the share of the
+ * id space it owns and the number of keys it stores as owner, then the statistics of the whole ring along with the
+ * tombstones and expired entries.
+ */
+@Slf4j(topic = "Load Observer")
+public class LoadObserver implements Control {
+    private final int hashTableProtocolId;
+
+    public LoadObserver(String prefix) {
+        this.hashTableProtocolId = Configuration.getPid(prefix + ".application");
+    }
+
+    @Override
+    public boolean execute() {
+        ConsistentHashRing placement = DHTProject.getPlacement();
+        if (placement.isEmpty()) return false;
+
+        Map<Node, Double> ownership = placement.ownership();
+        IncrementalStats owned = new IncrementalStats();
+        IncrementalStats stored = new IncrementalStats();
+        long tombstones = 0, expired = 0, purged = 0;
+
+        for (int i = 0; i < Network.size(); i++) {
+            Node node = Network.get(i);
+            if (getRoutingEngine(node).isIdle()) continue;
+
+            HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
+            int primaryKeys = 0;
+            for (Object key : table.keys()) {
+                if (placement.ownerOf(placement.position(key)) == node) primaryKeys++;
+            }
+
+            owned.add(primaryKeys);
+            stored.add(table.size());
+            tombstones += table.getTombstones();
+            expired += table.getExpiredValues();
+            purged += table.getPurgedTombstones();
+            log.debug(
+                    "Node {}: owns {} of the ring, {} keys as owner, {} keys stored",
+                    node.getIndex(), String.format("%.4f", ownership.getOrDefault(node, 0d)), primaryKeys, table.size()
+            );
+        }
+
+        log.info(
+                "Keys per node as owner: min={} mean={} max={} stdev={} (max/mean={})",
+                owned.getMin(), String.format("%.2f", owned.getAverage()), owned.getMax(),
+                String.format("%.2f", owned.getStD()),
+                String.format("%.2f", owned.getAverage() == 0 ? 0 : owned.getMax() / owned.getAverage())
+        );
+        log.info(
+                "Keys per node with replicas: min={} mean={} max={}",
+                stored.getMin(), String.format("%.2f", stored.getAverage()), stored.getMax()
+        );
+        log.info(
+                "Expiry: {} tombstones stored, {} expired values and {} tombstones dropped",
+                tombstones, expired, purged
+        );
+
+        return false;
+    }
+}
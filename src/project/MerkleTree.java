@@ -0,0 +1,87 @@
+package project;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Merkle tree over a set of keys and their values, used by two replicas to find the keys they disagree on. The id
+ * space is split into {@code 2^depth} ranges by the most significant bits of the hash of the keys, each range being a
+ * leaf of the tree. The tree is stored as a heap: the root is at index 1 and the children of the node {@code i} are at
+ * {@code 2i} and {@code 2i + 1}, so the leaves are at the indexes {@code 2^depth} to {@code 2^(depth + 1) - 1}.
+ *
+ * <p>The hash of a leaf is the sum of the hashes of its entries, so it does not depend on the order of the entries.
+ * Empty subtrees hash to 0 on both sides.
+ */
+public class MerkleTree {
+    private final int depth;
+    private final long[] hashes;
+
+    /**
+     * Build the tree of the entries of a store
+     * @param depth the depth of the tree, the number of leaves being {@code 2^depth}
+     * @param entries the entries of the store
+     * @param filter the keys to include in the tree
+     */
+    public MerkleTree(int depth, Map<Object, ?> entries, Predicate<Object> filter) {
+        this.depth = depth;
+        this.hashes = new long[2 << depth];
+
+        for (Map.Entry<Object, ?> entry : entries.entrySet()) {
+            if (!filter.test(entry.getKey())) continue;
+
+            NodeId hash = ConsistentHashRing.hash(entry.getKey());
+            this.hashes[leaf(depth, entry.getKey())] += mix(hash.getHigh() ^ mix(hash.getLow() ^ entry.getValue().hashCode()));
+        }
+
+        for (int i = (1 << depth) - 1; i >= 1; i--) {
+            long left = this.hashes[2 * i];
+            long right = this.hashes[2 * i + 1];
+            this.hashes[i] = left == 0 && right == 0 ? 0 : mix(left ^ mix(right));
+        }
+    }
+
+    /**
+     * Find the leaf holding a key
+     * @param depth the depth of the tree
+     * @param key the key
+     * @return the index of the leaf
+     */
+    public static int leaf(int depth, Object key) {
+        int range = depth == 0 ? 0 : (int) (ConsistentHashRing.hash(key).getHigh() >>> (64 - depth));
+        return (1 << depth) + range;
+    }
+
+    /**
+     * Check whether a key belongs to a subtree
+     * @param depth the depth of the tree
+     * @param index the index of the root of the subtree
+     * @param key the key
+     * @return true if the leaf of the key is under the node
+     */
+    public static boolean covers(int depth, int index, Object key) {
+        int level = 31 - Integer.numberOfLeadingZeros(index);
+        return leaf(depth, key) >>> (depth - level) == index;
+    }
+
+    /**
+     * splitmix64 finalizer, spreading the bits of a value
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+
+    public long hash(int index) {
+        return this.hashes[index];
+    }
+
+    public boolean isLeaf(int index) {
+        return index >= 1 << this.depth;
+    }
+
+    public int getDepth() {
+        return this.depth;
+    }
+}
@@ -3,19 +3,26 @@ package project;
 
 import lombok.extern.slf4j.Slf4j;
 import peersim.config.Configuration;
+import peersim.core.CommonState;
 import peersim.core.Control;
+import peersim.core.Fallible;
 import peersim.core.Network;
 import peersim.core.Node;
 import project.protocol.RoutablePacket;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static project.DHTProject.getRandomAwakenNode;
 import static project.Utils.getNodeId;
+import static project.Utils.getRoutingEngine;
 import static project.Utils.getTransport;
 
 /**
@@ -36,10 +43,16 @@ public class NodeController implements Control {
     public NodeController(String prefix) {
         this.hashTableProtocolId = Configuration.getPid(prefix + ".application");
 
-        // action node initialisation actions
-        for (int i = 1; i < Network.size(); i++) {
-            final int index = i;
-            this.actions.add(() -> wakeUpNode(index));
+        // action node initialisation actions, several nodes may join at once if the ring is stabilized
+        // (the initializer already woke up the first node, or every node if it built the whole ring)
+        int[] idleNodes = IntStream.range(0, Network.size()).filter(i -> getRoutingEngine(Network.get(i)).isIdle()).toArray();
+        int joins = Configuration.getInt(prefix + ".joins", 1);
+        for (int i = 0; i < idleNodes.length; i += joins) {
+            final int first = i;
+            final int last = Math.min(i + joins, idleNodes.length);
+            this.actions.add(() -> {
+                for (int index = first; index < last; index++) wakeUpNode(idleNodes[index]);
+            });
         }
 
         // show the ring
@@ -56,6 +69,67 @@ public class NodeController implements Control {
         // test hash table
         this.actions.add(() -> put("La clef", "La valeur"));
         this.actions.add(() -> get("La clef"));
+
+        // fill the hash table to observe the load of the nodes
+        int keys = Configuration.getInt(prefix + ".keys", 0);
+        if (keys > 0) {
+            // keys written and checked in batches grouped by owner, or one by one
+            int batchSize = Configuration.getInt(prefix + ".batchsize", 0);
+            Runnable checkKeys = batchSize > 0 ? () -> checkKeysInBatches(keys, batchSize) : () -> checkKeys(keys);
+            if (batchSize > 0) this.actions.add(() -> putKeysInBatches(keys, batchSize));
+            else this.actions.add(() -> putRandomKeys(keys));
+
+            // keys written twice in a row, the replication packets of both writes racing to the replicas
+            int overwrites = Configuration.getInt(prefix + ".overwrites", 0);
+            if (overwrites > 0) this.actions.add(() -> overwriteKeys(Math.min(overwrites, keys)));
+
+            // keys must be handed over when nodes leave and join
+            this.actions.add(() -> disconnectNode(1));
+            this.actions.add(() -> wakeUpNode(0));
+            this.actions.add(checkKeys);
+
+            // skewed reads, a few keys getting most of the gets, spread over several steps
+            int reads = Configuration.getInt(prefix + ".reads", 0);
+            int rounds = Configuration.getInt(prefix + ".readrounds", 5);
+            double exponent = Configuration.getDouble(prefix + ".zipf", 1);
+            if (reads > 0) {
+                double[] distribution = zipf(keys, exponent);
+                for (int round = 0; round < rounds; round++) {
+                    this.actions.add(() -> readHotKeys(distribution, reads / rounds));
+                }
+            }
+
+            // gets of keys that were never written
+            int misses = Configuration.getInt(prefix + ".misses", 0);
+            if (misses > 0) this.actions.add(() -> getMissingKeys(misses));
+
+            // keys read as soon as their put is acknowledged, before the next summaries of their holders are sent
+            int fresh = Configuration.getInt(prefix + ".fresh", 0);
+            if (fresh > 0) this.actions.add(() -> putAndReadKeys(fresh));
+
+            // keys deleted right after being written, and keys written with a time to live, both checked absent a step
+            // later, so the time to live must be shorter than a step
+            int deletes = Configuration.getInt(prefix + ".deletes", 0);
+            int expiring = Configuration.getInt(prefix + ".expiring", 0);
+            long ttl = Configuration.getLong(prefix + ".ttl", 0);
+            if (deletes > 0) this.actions.add(() -> putAndDeleteKeys(deletes));
+            if (expiring > 0 && ttl > 0) this.actions.add(() -> putExpiringKeys(expiring, ttl));
+            if (deletes > 0) this.actions.add(() -> checkAbsentKeys("deleted-", deletes));
+            if (expiring > 0 && ttl > 0) this.actions.add(() -> checkAbsentKeys("expiring-", expiring));
+
+            // ranges of rows scanned in order, with the ordered placement only
+            int scans = Configuration.getInt(prefix + ".scans", 0);
+            int scanLimit = Configuration.getInt(prefix + ".scanlimit", 100);
+            if (scans > 0) {
+                this.actions.add(() -> putRows(keys));
+                this.actions.add(() -> scanRows(keys, scans, scanLimit));
+            }
+
+            // the ring must be repaired when a node crashes without leaving it, and replicas must answer for it
+            this.actions.add(() -> crashNode(2));
+            this.actions.add(() -> sendMessageRandom("Hello after the crash"));
+            this.actions.add(checkKeys);
+        }
     }
 
     @Override
@@ -73,7 +147,7 @@ public class NodeController implements Control {
 
     public void wakeUpNode(int nodeIndex) {
         Node node = Network.get(nodeIndex);
-        Transport transport = (Transport) node.getProtocol(DHTProject.getTransportPid());
+        RoutingEngine transport = getRoutingEngine(node);
         log.info("Waking up node {}", nodeIndex);
         transport.awake(node);
         log.info("bootstrapped " + transport);
@@ -81,12 +155,24 @@ public class NodeController implements Control {
 
     public void disconnectNode(int nodeIndex) {
         log.info("Killing node {}", nodeIndex);
-        Node node = Network.get(nodeIndex);
-        Transport transport = (Transport) node.getProtocol(DHTProject.getTransportPid());
-        transport.leave();
+        getRoutingEngine(Network.get(nodeIndex)).leave();
+    }
+
+    /**
+     * Crash a node: it stops processing packets without notifying its neighbors
+     * @param nodeIndex the index of the node
+     */
+    public void crashNode(int nodeIndex) {
+        log.info("Crashing node {}", nodeIndex);
+        Network.get(nodeIndex).setFailState(Fallible.DOWN);
     }
 
     public void displayRing() {
+        if (!(getRoutingEngine(Network.get(0)) instanceof Transport)) {
+            log.info("The overlay is not a ring, {} nodes joined it", DHTProject.getAwakenNodesCount());
+            return;
+        }
+
         List<Transport> nodes = new LinkedList<>();
         Node node = Network.get(0);
 
@@ -100,6 +186,18 @@ public class NodeController implements Control {
                 .map(transport -> String.format("%s (%s)", transport.getId(), transport.getLocalNode().getIndex()))
                 .collect(Collectors.joining(" => "));
         log.info("Final ring: {}", idsString);
+
+        // each node must be the left node of its right node, and ids must only decrease once, at the end of the ring
+        int wraps = 0;
+        for (Transport transport : nodes) {
+            Transport right = getTransport(transport.getRight());
+            if (right.getLeft() != transport.getLocalNode()) {
+                log.warn("Node {} is not the left node of its right node {}", transport.getLocalNode().getIndex(),
+                        right.getLocalNode().getIndex());
+            }
+            if (right.getId().compareTo(transport.getId()) <= 0) wraps++;
+        }
+        if (wraps != 1) log.warn("The ring is not ordered, it wraps {} times", wraps);
     }
 
     public void sendMessageRandom(String message) {
@@ -112,8 +210,7 @@ public class NodeController implements Control {
                 getNodeId(randomTarget), randomTarget.getIndex()
         );
 
-        Transport transport = getTransport(randomSender);
-        transport.sendMessage(getNodeId(randomTarget), message);
+        getRoutingEngine(randomSender).sendMessage(getNodeId(randomTarget), message);
     }
 
     public void put(Object key, Object value) {
@@ -121,7 +218,265 @@ public class NodeController implements Control {
 
         Node node = getRandomAwakenNode();
         HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
-        table.put(key, value);
+        table.put(key, value).thenRun(() -> log.info("Put of `{}` acknowledged", key));
+    }
+
+    public void putRandomKeys(int count) {
+        log.info("Inserting {} keys in the dht", count);
+
+        // every put is sent at once, they are pipelined by the nodes
+        AtomicInteger acknowledged = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            Node node = getRandomAwakenNode();
+            HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
+            table.put("key-" + i, "value-" + i).thenRun(() -> {
+                if (acknowledged.incrementAndGet() == count) log.info("All {} puts acknowledged", count);
+            });
+        }
+    }
+
+    public void putKeysInBatches(int count, int batchSize) {
+        log.info("Inserting {} keys in the dht, in batches of {}", count, batchSize);
+
+        AtomicInteger acknowledged = new AtomicInteger();
+        for (int first = 0; first < count; first += batchSize) {
+            Map<Object, Object> entries = new HashMap<>();
+            for (int i = first; i < Math.min(first + batchSize, count); i++) entries.put("key-" + i, "value-" + i);
+
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.putAll(entries).thenRun(() -> {
+                if (acknowledged.addAndGet(entries.size()) == count) log.info("All {} puts acknowledged", count);
+            });
+        }
+    }
+
+    public void checkKeysInBatches(int count, int batchSize) {
+        log.info("Fetching the {} keys from the DHT, in batches of {}", count, batchSize);
+
+        AtomicInteger found = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+
+        for (int first = 0; first < count; first += batchSize) {
+            Map<Object, String> expected = new HashMap<>();
+            for (int i = first; i < Math.min(first + batchSize, count); i++) expected.put("key-" + i, "value-" + i);
+
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.getAll(expected.keySet()).whenComplete((values, error) -> {
+                if (values != null) {
+                    expected.forEach((key, value) -> {
+                        if (value.equals(values.get(key))) found.incrementAndGet();
+                    });
+                }
+                if (answered.addAndGet(expected.size()) == count) log.info("Found {} keys out of {}", found.get(), count);
+            });
+        }
+    }
+
+    public void overwriteKeys(int count) {
+        log.info("Writing {} keys twice in a row", count);
+
+        // the second put is sent as soon as the first one is acknowledged by the write quorum, so the last replica
+        // may receive both writes in any order
+        AtomicInteger acknowledged = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            String key = "key-" + i;
+            String value = "value-" + i;
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.put(key, "previous-" + i)
+                    .thenCompose(ignored -> table.put(key, value))
+                    .thenRun(() -> {
+                        if (acknowledged.incrementAndGet() == count) log.info("All {} overwrites acknowledged", count);
+                    });
+        }
+    }
+
+    public void checkKeys(int count) {
+        log.info("Fetching the {} keys from the DHT", count);
+
+        AtomicInteger found = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            String expected = "value-" + i;
+            Node node = getRandomAwakenNode();
+            HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
+            table.get("key-" + i).whenComplete((value, error) -> {
+                if (expected.equals(value)) found.incrementAndGet();
+                if (answered.incrementAndGet() == count) log.info("Found {} keys out of {}", found.get(), count);
+            });
+        }
+    }
+
+    /**
+     * Compute the cumulative distribution of a Zipf law, the key of rank {@code i} being read with a probability
+     * proportional to {@code 1 / (i + 1)^exponent}
+     * @param keys the number of keys
+     * @param exponent the skew of the law, 0 for uniform reads
+     * @return the cumulative probabilities of the keys
+     */
+    private static double[] zipf(int keys, double exponent) {
+        double[] distribution = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            distribution[i] = sum;
+        }
+        for (int i = 0; i < keys; i++) distribution[i] /= sum;
+        return distribution;
+    }
+
+    public void readHotKeys(double[] distribution, int count) {
+        log.info("Fetching {} keys from the DHT, following a Zipf law", count);
+
+        AtomicInteger found = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(distribution, CommonState.r.nextDouble());
+            int key = Math.min(rank < 0 ? -rank - 1 : rank, distribution.length - 1);
+
+            String expected = "value-" + key;
+            Node node = getRandomAwakenNode();
+            HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
+            table.get("key-" + key).whenComplete((value, error) -> {
+                if (expected.equals(value)) found.incrementAndGet();
+                if (answered.incrementAndGet() == count) log.info("Found {} keys out of {}", found.get(), count);
+            });
+        }
+    }
+
+    public void getMissingKeys(int count) {
+        log.info("Fetching {} missing keys from the DHT", count);
+
+        AtomicInteger absent = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            Node node = getRandomAwakenNode();
+            HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
+            table.get("missing-" + i).whenComplete((value, error) -> {
+                if (error == null && value == null) absent.incrementAndGet();
+                if (answered.incrementAndGet() == count) log.info("{} missing keys out of {} reported absent", absent.get(), count);
+            });
+        }
+    }
+
+    public void putAndReadKeys(int count) {
+        log.info("Writing {} keys and reading each one back as soon as it is acknowledged", count);
+
+        AtomicInteger found = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            String key = "fresh-" + i;
+            String expected = "value-" + i;
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.put(key, expected)
+                    .thenCompose(ignored -> {
+                        HashTable reader = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+                        return reader.get(key);
+                    })
+                    .whenComplete((value, error) -> {
+                        if (expected.equals(value)) found.incrementAndGet();
+                        if (answered.incrementAndGet() == count) {
+                            log.info("Found {} fresh keys out of {}", found.get(), count);
+                        }
+                    });
+        }
+    }
+
+    public void putAndDeleteKeys(int count) {
+        log.info("Writing then deleting {} keys", count);
+
+        AtomicInteger acknowledged = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            String key = "deleted-" + i;
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.put(key, "value-" + i)
+                    .thenCompose(ignored -> table.delete(key))
+                    .thenRun(() -> {
+                        if (acknowledged.incrementAndGet() == count) log.info("All {} deletes acknowledged", count);
+                    });
+        }
+    }
+
+    public void putExpiringKeys(int count, long ttl) {
+        log.info("Writing {} keys expiring after {}", count, ttl);
+
+        for (int i = 0; i < count; i++) {
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.put("expiring-" + i, "value-" + i, ttl);
+        }
+    }
+
+    public void checkAbsentKeys(String prefix, int count) {
+        log.info("Fetching {} keys starting with `{}`, that should be gone", count, prefix);
+
+        AtomicInteger absent = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.get(prefix + i).whenComplete((value, error) -> {
+                if (error == null && value == null) absent.incrementAndGet();
+                if (answered.incrementAndGet() == count) log.info("{} keys out of {} are gone", absent.get(), count);
+            });
+        }
+    }
+
+    /**
+     * Compute the key of a row, rows being spread over the 10 digits keys so they span several segments of the ring
+     * with the ordered placement while keeping their order. No other key of the scenario starts with a digit.
+     * @param index the index of the row
+     * @param count the number of rows
+     * @return the key of the row
+     */
+    private static String row(int index, int count) {
+        return String.format("%010d", index * 10_000_000_000L / count);
+    }
+
+    public void putRows(int count) {
+        log.info("Inserting {} rows in the dht", count);
+
+        HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+        Map<Object, Object> rows = new HashMap<>();
+        for (int i = 0; i < count; i++) rows.put(row(i, count), "value-" + i);
+        table.putAll(rows).thenRun(() -> log.info("All {} rows acknowledged", count));
+    }
+
+    public void scanRows(int count, int scans, int limit) {
+        if (!DHTProject.getPlacement().isOrdered()) {
+            log.warn("Rows can only be scanned with the ordered placement");
+            return;
+        }
+        log.info("Scanning {} ranges of rows, at most {} rows each", scans, limit);
+
+        AtomicInteger correct = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+
+        for (int i = 0; i < scans; i++) {
+            int first = CommonState.r.nextInt(count - 1);
+            int end = first + 1 + CommonState.r.nextInt(count - first - 1);
+            List<Object> expected = new ArrayList<>();
+            for (int index = first; index < Math.min(end, first + limit); index++) {
+                expected.add(row(index, count) + "=value-" + index);
+            }
+
+            List<Object> rows = new ArrayList<>();
+            HashTable table = (HashTable) getRandomAwakenNode().getProtocol(this.hashTableProtocolId);
+            table.scan(row(first, count), row(end, count), limit, (key, value) -> rows.add(key + "=" + value))
+                    .whenComplete((entries, error) -> {
+                        if (error == null && rows.equals(expected)) correct.incrementAndGet();
+                        received.addAndGet(rows.size());
+                        if (answered.incrementAndGet() == scans) {
+                            log.info(
+                                    "{} scans out of {} returned the expected rows in order, {} rows received",
+                                    correct.get(), scans, received.get()
+                            );
+                        }
+                    });
+        }
     }
 
     public void get(Object key) {
@@ -129,6 +484,9 @@ public class NodeController implements Control {
 
         Node node = getRandomAwakenNode();
         HashTable table = (HashTable) node.getProtocol(this.hashTableProtocolId);
-        table.get(key).thenAccept(value -> log.info("For key `{}`, got: {}", key, value));
+        table.get(key).whenComplete((value, error) -> {
+            if (error != null) log.warn("Failed to get `{}`: {}", key, error.getMessage());
+            else log.info("For key `{}`, got: {}", key, value);
+        });
     }
 }
@@ -0,0 +1,161 @@
+package project;
+
+import lombok.Value;
+import peersim.core.CommonState;
+
+/**
+ * 128 bits identifier of a node on the ring, stored as two primitive longs. Ids are ordered as unsigned 128 bits
+ * integers and all the arithmetic is done modulo 2^128, so the id space is a circle. Static variants taking the raw
+ * longs are provided so packets can be routed without building any object.
+ */
+@Value
+public class NodeId implements Comparable<NodeId> {
+    /**
+     * Most significant bits
+     */
+    long high;
+
+    /**
+     * Least significant bits
+     */
+    long low;
+
+    /**
+     * Generate a random id from the simulation random generator, so ids are reproducible from {@code random.seed}
+     * @return a new id
+     */
+    public static NodeId random() {
+        return new NodeId(CommonState.r.nextLong(), CommonState.r.nextLong());
+    }
+
+    /**
+     * Parse an id from its hexadecimal representation, dashes are ignored so the UUID format is accepted
+     * @param text the 32 hexadecimal digits of the id
+     * @return the parsed id
+     */
+    public static NodeId parse(CharSequence text) {
+        long high = 0, low = 0;
+        int digits = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '-') continue;
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0 || digits == 32) throw new IllegalArgumentException("Invalid node id: " + text);
+
+            if (digits < 16) high = high << 4 | digit;
+            else low = low << 4 | digit;
+            digits++;
+        }
+
+        if (digits != 32) throw new IllegalArgumentException("Invalid node id: " + text);
+        return new NodeId(high, low);
+    }
+
+    /**
+     * Compare two ids as unsigned 128 bits integers
+     * @return a negative integer, zero, or a positive integer as the first id is less than, equal to, or greater than
+     * the second one
+     */
+    public static int compare(long high, long low, long otherHigh, long otherLow) {
+        int result = Long.compareUnsigned(high, otherHigh);
+        return result != 0 ? result : Long.compareUnsigned(low, otherLow);
+    }
+
+    /**
+     * Check if an id is strictly between two other ids, going clockwise on the ring (hence from the left to the
+     * right). If both bounds are equal, the interval covers the whole ring but the bound itself.
+     * @param high the most significant bits of the id to check
+     * @param low the least significant bits of the id to check
+     * @param from the lower bound, excluded
+     * @param to the upper bound, excluded
+     * @return true if the id is in the interval
+     */
+    public static boolean isBetween(long high, long low, NodeId from, NodeId to) {
+        return isBetween(high, low, from.high, from.low, to.high, to.low);
+    }
+
+    public static boolean isBetween(long high, long low, long fromHigh, long fromLow, long toHigh, long toLow) {
+        int fromOrder = compare(high, low, fromHigh, fromLow);
+        int toOrder = compare(high, low, toHigh, toLow);
+        if (compare(fromHigh, fromLow, toHigh, toLow) < 0) return fromOrder > 0 && toOrder < 0;
+        // the interval wraps around the end of the ring
+        return fromOrder > 0 || toOrder < 0;
+    }
+
+    /**
+     * Check which direction is the shortest to go from an id to another. The difference between both ids is computed
+     * modulo 2^128, the target is closer going clockwise if this distance covers less than half of the ring.
+     * @param high the most significant bits of the id to reach
+     * @param low the least significant bits of the id to reach
+     * @return true if the target is closer going right, false if it is closer going left
+     */
+    public boolean isClockwise(long high, long low) {
+        long borrow = Long.compareUnsigned(low, this.low) < 0 ? 1 : 0;
+        return high - this.high - borrow >= 0;
+    }
+
+    public boolean isClockwise(NodeId to) {
+        return this.isClockwise(to.high, to.low);
+    }
+
+    public boolean isBetween(NodeId from, NodeId to) {
+        return isBetween(this.high, this.low, from, to);
+    }
+
+    public boolean is(long high, long low) {
+        return this.high == high && this.low == low;
+    }
+
+    /**
+     * Add {@code 2^bit} to this id, wrapping around the end of the ring
+     * @param bit the power of two to add, between 0 and 127
+     * @return the offset id
+     */
+    public NodeId offset(int bit) {
+        if (bit >= 64) return new NodeId(this.high + (1L << (bit - 64)), this.low);
+
+        long sum = this.low + (1L << bit);
+        long carry = Long.compareUnsigned(sum, this.low) < 0 ? 1 : 0;
+        return new NodeId(this.high + carry, sum);
+    }
+
+    /**
+     * Clockwise distance from this id to another one, modulo 2^128
+     * @param to the id to reach
+     * @return the distance, as an id
+     */
+    public NodeId distanceTo(NodeId to) {
+        long borrow = Long.compareUnsigned(to.low, this.low) < 0 ? 1 : 0;
+        return new NodeId(to.high - this.high - borrow, to.low - this.low);
+    }
+
+    /**
+     * XOR distance between this id and another one, as used by Kademlia
+     * @param other the other id
+     * @return the bitwise exclusive or of both ids
+     */
+    public NodeId xor(NodeId other) {
+        return new NodeId(this.high ^ other.high, this.low ^ other.low);
+    }
+
+    /**
+     * @return the index of the most significant bit set, from 0 to 127, or -1 if the id is zero
+     */
+    public int highestBit() {
+        if (this.high != 0) return 127 - Long.numberOfLeadingZeros(this.high);
+        if (this.low != 0) return 63 - Long.numberOfLeadingZeros(this.low);
+        return -1;
+    }
+
+    @Override
+    public int compareTo(NodeId other) {
+        return compare(this.high, this.low, other.high, other.low);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", this.high, this.low);
+    }
+}
@@ -0,0 +1,77 @@
+package project;
+
+import peersim.core.CommonState;
+import peersim.core.Node;
+
+import java.util.Arrays;
+
+/**
+ * Set of nodes supporting constant time insertion, removal and uniform sampling. Nodes are packed at the beginning of
+ * an array and a removed node is replaced by the last one, the position of each node being indexed by its address.
+ */
+public class NodeRegistry {
+    private static final int ABSENT = -1;
+
+    private Node[] nodes;
+    private int[] positions;
+    private int size = 0;
+
+    public NodeRegistry(int capacity) {
+        this.nodes = new Node[Math.max(capacity, 1)];
+        this.positions = new int[Math.max(capacity, 1)];
+        Arrays.fill(this.positions, ABSENT);
+    }
+
+    /**
+     * @param node the node to add, ignored if already registered
+     */
+    public void add(Node node) {
+        int address = node.getIndex();
+        if (address >= this.positions.length) this.grow(address + 1);
+        if (this.positions[address] != ABSENT) return;
+
+        if (this.size == this.nodes.length) this.nodes = Arrays.copyOf(this.nodes, this.size * 2);
+        this.nodes[this.size] = node;
+        this.positions[address] = this.size++;
+    }
+
+    /**
+     * @param node the node to remove, ignored if not registered
+     */
+    public void remove(Node node) {
+        int address = node.getIndex();
+        if (address >= this.positions.length || this.positions[address] == ABSENT) return;
+
+        // move the last node to the freed position
+        int position = this.positions[address];
+        Node last = this.nodes[--this.size];
+        this.nodes[position] = last;
+        this.positions[last.getIndex()] = position;
+        this.nodes[this.size] = null;
+        this.positions[address] = ABSENT;
+    }
+
+    public boolean contains(Node node) {
+        int address = node.getIndex();
+        return address < this.positions.length && this.positions[address] != ABSENT;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Pick a node uniformly, using the simulation random generator so runs are reproducible from {@code random.seed}
+     * @return a random registered node
+     */
+    public Node random() {
+        if (this.size == 0) throw new IllegalStateException("No node registered");
+        return this.nodes[CommonState.r.nextInt(this.size)];
+    }
+
+    private void grow(int capacity) {
+        int previous = this.positions.length;
+        this.positions = Arrays.copyOf(this.positions, Math.max(capacity, previous * 2));
+        Arrays.fill(this.positions, previous, this.positions.length, ABSENT);
+    }
+}
@@ -0,0 +1,50 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.config.Configuration;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.util.IncrementalStats;
+
+/**
+ * Report how many gets were answered on their way to the owner of their key, by the path caches of the nodes or from
+ * the summaries of the keys of their neighbors, and the read load left on the owners.
+ */
+@Slf4j(topic = "Path Cache Observer")
+public class PathCacheObserver implements Control {
+    private final int hashTableProtocolId;
+
+    public PathCacheObserver(String prefix) {
+        this.hashTableProtocolId = Configuration.getPid(prefix + ".application");
+    }
+
+    @Override
+    public boolean execute() {
+        long hits = 0, misses = 0, expirations = 0, evictions = 0, summaryMisses = 0;
+        IncrementalStats coordinated = new IncrementalStats();
+
+        for (int i = 0; i < Network.size(); i++) {
+            HashTable table = (HashTable) Network.get(i).getProtocol(this.hashTableProtocolId);
+            ValueCache cache = table.getPathCache();
+            hits += cache.getHits();
+            misses += cache.getMisses();
+            expirations += cache.getExpirations();
+            evictions += cache.getEvictions();
+            coordinated.add(table.getCoordinatedGets());
+            summaryMisses += table.getSummaryMisses();
+        }
+
+        long lookups = hits + misses;
+        log.info(
+                "Path caches: {} gets answered on the way, {} misses (hit ratio {}), {} expirations, {} evictions",
+                hits, misses, String.format("%.3f", lookups == 0 ? 0 : (double) hits / lookups), expirations, evictions
+        );
+        log.info("Key summaries: {} gets of missing keys answered before reaching their target", summaryMisses);
+        log.info(
+                "Gets reaching the owner per node: mean={} max={}",
+                String.format("%.2f", coordinated.getAverage()), coordinated.getMax()
+        );
+
+        return false;
+    }
+}
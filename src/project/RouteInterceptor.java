@@ -0,0 +1,18 @@
+package project;
+
+import peersim.core.Node;
+import project.protocol.RoutablePacket;
+
+/**
+ * Application looking at the packets routed through its node on their way to another node. It may answer a packet in
+ * place of its target, in which case the packet is not forwarded any further.
+ */
+public interface RouteInterceptor {
+    /**
+     * A packet sent by another node is going through this node
+     * @param node the local node
+     * @param packet the packet, not yet forwarded
+     * @return true if the packet has been answered and must not be forwarded
+     */
+    boolean intercept(Node node, RoutablePacket packet);
+}
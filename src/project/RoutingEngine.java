@@ -0,0 +1,66 @@
+package project;
+
+import peersim.core.Node;
+import peersim.edsim.EDProtocol;
+import project.protocol.Packet;
+import project.protocol.RoutablePacket;
+
+/**
+ * Overlay network used by the application to reach the nodes owning an id. The {@link Transport} routes along a ring
+ * (optionally with fingers) and the {@link KademliaTransport} uses iterative lookups over XOR k-buckets; the hash table
+ * runs unchanged over either of them.
+ */
+public interface RoutingEngine extends EDProtocol {
+    NodeId getId();
+
+    Node getLocalNode();
+
+    /**
+     * @return whether the node is not part of the overlay, either because it did not join yet or because it left
+     */
+    boolean isIdle();
+
+    /**
+     * @return the pid of the application receiving the {@link project.protocol.ApplicationPacket}s
+     */
+    int getApplicationPid();
+
+    /**
+     * Deliver a packet to the node owning its target id
+     * @param packet the packet to route
+     */
+    void route(RoutablePacket packet);
+
+    /**
+     * Send a packet directly to a node whose address is known
+     * @param dest the destination
+     * @param packet the packet
+     */
+    void send(Node dest, Packet packet);
+
+    void sendMessage(NodeId target, String message);
+
+    /**
+     * Join the overlay through a node that is already part of it
+     * @param localNode the local node
+     */
+    void awake(Node localNode);
+
+    /**
+     * Create the overlay as its first node
+     * @param localNode the local node
+     */
+    void awakeAsInitialNode(Node localNode);
+
+    void leave();
+
+    /**
+     * @return the number of packets sent by this node to move routable packets toward their target, lookups included
+     */
+    long getRoutingMessages();
+
+    /**
+     * @return the number of routable packets that reached this node as their target
+     */
+    long getDeliveredPackets();
+}
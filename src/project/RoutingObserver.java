@@ -0,0 +1,36 @@
+package project;
+
+import lombok.extern.slf4j.Slf4j;
+import peersim.core.Control;
+import peersim.core.Network;
+
+import static project.Utils.getRoutingEngine;
+
+/**
+ * Report the cost of the routing of the overlay: the packets sent to move routable packets toward their target,
+ * lookups included, against the number of packets delivered. Along with the latencies reported by the
+ * {@link LatencyObserver}, it compares the routing engines under the same workload.
+ */
+@Slf4j(topic = "Routing Observer")
+public class RoutingObserver implements Control {
+    public RoutingObserver(String prefix) {}
+
+    @Override
+    public boolean execute() {
+        long messages = 0, delivered = 0;
+
+        for (int i = 0; i < Network.size(); i++) {
+            RoutingEngine engine = getRoutingEngine(Network.get(i));
+            messages += engine.getRoutingMessages();
+            delivered += engine.getDeliveredPackets();
+        }
+
+        log.info(
+                "{}: {} routing messages for {} delivered packets ({} per packet)",
+                getRoutingEngine(Network.get(0)).getClass().getSimpleName(), messages, delivered,
+                String.format("%.2f", delivered == 0 ? 0 : messages / (double) delivered)
+        );
+
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+package project;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Space-saving sketch counting the occurrences of the most frequent items with a fixed number of counters. When an
+ * item that is not counted shows up and every counter is taken, the item with the lowest count is replaced and the
+ * new item inherits its count, so counts are over-estimated by at most the lowest count while any item occurring more
+ * than {@code 1 / counters} of the time is guaranteed to be counted.
+ *
+ * <p>Counts are halved by {@link #decay()}, so they reflect the recent rate of the items rather than their whole
+ * history.
+ *
+ * <p>Items are also grouped by count in increasing order, so the item to replace is found without scanning the counters
+ * and an occurrence costs O(log n) in the number of distinct counts.
+ */
+public class SpaceSaving {
+    private final int counters;
+    private final Map<Object, Long> counts = new HashMap<>();
+
+    /**
+     * Counted items by count, in the order they reached it
+     */
+    private final TreeMap<Long, Set<Object>> buckets = new TreeMap<>();
+
+    public SpaceSaving(int counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Count an occurrence of an item
+     * @param item the item
+     */
+    public void offer(Object item) {
+        Long count = this.counts.get(item);
+        if (count != null) {
+            this.unlink(item, count);
+        } else if (this.counts.size() < this.counters) {
+            count = 0L;
+        } else {
+            // the least recently bumped of the items with the lowest count
+            Map.Entry<Long, Set<Object>> smallest = this.buckets.firstEntry();
+            Iterator<Object> items = smallest.getValue().iterator();
+            Object replaced = items.next();
+            items.remove();
+            if (smallest.getValue().isEmpty()) this.buckets.remove(smallest.getKey());
+
+            this.counts.remove(replaced);
+            count = smallest.getKey();
+        }
+
+        this.link(item, count + 1);
+    }
+
+    /**
+     * @param item the item
+     * @return the estimated count of the item, 0 if it is not counted
+     */
+    public long estimate(Object item) {
+        return this.counts.getOrDefault(item, 0L);
+    }
+
+    /**
+     * @return the counted items and their estimated counts
+     */
+    public Map<Object, Long> counts() {
+        return Collections.unmodifiableMap(this.counts);
+    }
+
+    /**
+     * Halve every count, items whose count falls to 0 free their counter
+     */
+    public void decay() {
+        this.counts.replaceAll((item, count) -> count / 2);
+        this.counts.values().removeIf(count -> count == 0);
+
+        // halving keeps the order of the counts, only equal halves merge
+        TreeMap<Long, Set<Object>> halved = new TreeMap<>();
+        for (Map.Entry<Long, Set<Object>> bucket : this.buckets.entrySet()) {
+            long count = bucket.getKey() / 2;
+            if (count > 0) halved.computeIfAbsent(count, c -> new LinkedHashSet<>()).addAll(bucket.getValue());
+        }
+        this.buckets.clear();
+        this.buckets.putAll(halved);
+    }
+
+    public void clear() {
+        this.counts.clear();
+        this.buckets.clear();
+    }
+
+    private void link(Object item, long count) {
+        this.counts.put(item, count);
+        this.buckets.computeIfAbsent(count, c -> new LinkedHashSet<>()).add(item);
+    }
+
+    private void unlink(Object item, long count) {
+        Set<Object> bucket = this.buckets.get(count);
+        bucket.remove(item);
+        if (bucket.isEmpty()) this.buckets.remove(count);
+    }
+}
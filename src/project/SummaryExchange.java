@@ -0,0 +1,18 @@
+package project;
+
+/**
+ * Application exchanging summaries of its keys with the neighbors of its node, piggybacked by the transport on the
+ * packets of the stabilization of the ring
+ */
+public interface SummaryExchange {
+    /**
+     * @return a summary of the keys stored by this node, or null if the application does not summarize its keys
+     */
+    KeySummary getSummary();
+
+    /**
+     * A neighbor sent us the summary of its keys
+     * @param summary the summary
+     */
+    void onSummary(KeySummary summary);
+}
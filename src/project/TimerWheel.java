@@ -0,0 +1,132 @@
+package project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel (Varghese and Lauck) holding the expirations of the entries of a node. Time is split in
+ * ticks and each level of the wheel has {@value SLOTS} slots, a slot of the level {@code l} covering
+ * {@code SLOTS^l} ticks. A timer is put in the level matching how far its deadline is, and moved down a level each
+ * time the wheel reaches the start of its slot, so scheduling and firing a timer both cost a constant time whatever the
+ * number of timers, and the wheel is advanced by a single periodic event instead of an event per timer.
+ *
+ * <p>Timers cannot be cancelled: the owner of the wheel checks whether the entry of a fired timer still expires.
+ * @param <T> the type of the items the timers are set for
+ */
+public class TimerWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+
+    /**
+     * Duration of a tick, in simulation time
+     */
+    private final long tick;
+
+    private final List<List<Timer<T>>> slots = new ArrayList<>(LEVELS * SLOTS);
+
+    /**
+     * Last tick the wheel reached
+     */
+    private long current;
+    private int size = 0;
+
+    /**
+     * @param tick the duration of a tick, the precision of the timers
+     * @param now the current simulation time
+     */
+    public TimerWheel(long tick, long now) {
+        this.tick = tick;
+        this.current = now / tick;
+        for (int i = 0; i < LEVELS * SLOTS; i++) this.slots.add(new ArrayList<>());
+    }
+
+    /**
+     * Set a timer
+     * @param item the item the timer is set for
+     * @param deadline the simulation time at which the timer fires, it fires at the first tick following it
+     */
+    public void schedule(T item, long deadline) {
+        // round up, a timer never fires before its deadline
+        long deadlineTick = (deadline + this.tick - 1) / this.tick;
+        this.insert(new Timer<>(item, Math.max(deadlineTick, this.current + 1)));
+        this.size++;
+    }
+
+    private void insert(Timer<T> timer) {
+        long delta = timer.deadline - this.current;
+
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (BITS * (level + 1))) {
+                this.slot(level, timer.deadline >>> (BITS * level)).add(timer);
+                return;
+            }
+        }
+
+        // too far for the wheel, parked in the last slot of the top level to be reached before the wheel wraps around
+        this.slot(LEVELS - 1, (this.current >>> (BITS * (LEVELS - 1))) - 1).add(timer);
+    }
+
+    private List<Timer<T>> slot(int level, long index) {
+        return this.slots.get(level * SLOTS + (int) (index & (SLOTS - 1)));
+    }
+
+    /**
+     * Advance the wheel up to a time, firing the timers whose deadline passed
+     * @param now the current simulation time
+     * @return the items of the fired timers
+     */
+    public List<T> advance(long now) {
+        List<T> fired = new ArrayList<>();
+
+        long target = now / this.tick;
+        // nothing to fire on the way
+        if (this.size == 0) this.current = Math.max(this.current, target);
+        while (this.current < target) {
+            this.current++;
+
+            // move the timers of the higher levels down, starting from the top so they can fall several levels
+            int levels = 1;
+            while (levels < LEVELS && (this.current & ((1L << (BITS * levels)) - 1)) == 0) levels++;
+            for (int level = levels - 1; level >= 1; level--) {
+                List<Timer<T>> slot = this.slot(level, this.current >>> (BITS * level));
+                List<Timer<T>> timers = new ArrayList<>(slot);
+                slot.clear();
+                for (Timer<T> timer : timers) this.insert(timer);
+            }
+
+            List<Timer<T>> slot = this.slot(0, this.current);
+            for (Timer<T> timer : slot) fired.add(timer.item);
+            this.size -= slot.size();
+            slot.clear();
+        }
+
+        return fired;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public long getTick() {
+        return this.tick;
+    }
+
+    private static class Timer<T> {
+        private final T item;
+
+        /**
+         * Tick at which the timer fires
+         */
+        private final long deadline;
+
+        private Timer(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
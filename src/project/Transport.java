@@ -4,32 +4,63 @@ import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import peersim.config.Configuration;
-import peersim.core.CommonState;
+import peersim.config.IllegalParameterException;
 import peersim.core.Network;
 import peersim.core.Node;
-import peersim.edsim.EDProtocol;
 import peersim.edsim.EDSimulator;
 import project.protocol.ApplicationPacket;
 import project.protocol.Packet;
 import project.protocol.Packet.DiscoveryPacket;
+import project.protocol.Packet.FingerLookupPacket;
+import project.protocol.Packet.FingerPacket;
+import project.protocol.Packet.FixFingersPacket;
+import project.protocol.Packet.NotifyPacket;
+import project.protocol.Packet.PredecessorPacket;
+import project.protocol.Packet.PredecessorRequestPacket;
+import project.protocol.Packet.StabilizePacket;
 import project.protocol.Packet.SwitchNeighborPacket;
+import project.protocol.Packet.TrafficPacket;
 import project.protocol.Packet.WelcomePacket;
 import project.protocol.RoutablePacket;
 import project.protocol.RoutablePacket.MessagePacket;
 import project.protocol.RoutablePacket.UndeliverableRoutablePacket;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkState;
 import static project.Utils.getNodeId;
+import static project.Utils.getTransport;
 import static project.protocol.Packet.SwitchNeighborPacket.LEFT;
 import static project.protocol.Packet.SwitchNeighborPacket.RIGHT;
 
 @Getter
-public class Transport implements EDProtocol, peersim.transport.Transport {
-    private final Map<UUID, Integer> addressesCache = new HashMap<>();
+public class Transport implements RoutingEngine, peersim.transport.Transport {
+    /**
+     * Packets are forwarded from neighbor to neighbor along the ring
+     */
+    public static final String ROUTING_RING = "ring";
+
+    /**
+     * Packets are forwarded using Chord-like finger tables
+     */
+    public static final String ROUTING_FINGER = "finger";
+
+    private static final int NO_DETECTOR = -1;
+
+    /**
+     * Addresses of the nodes we received packets from, used to send packets directly to them
+     */
+    private final AddressCache addressesCache;
+
+    /**
+     * Latency of the links to the other nodes, used to pick the closest fingers when it reflects a topology
+     */
+    private final Underlay underlay;
+
     /**
      * The prefix of this layer in the configuration file
      */
@@ -65,27 +96,112 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
      */
     private Node right = null;
 
+    /**
+     * Nodes following this one on the ring, starting with the right node, used to replace the right node if it
+     * crashes. Refreshed by the stabilization.
+     */
+    private final List<Node> successors = new ArrayList<>();
+
+    /**
+     * Nodes preceding this one on the ring, starting with the left node, used to replace the left node if it crashes.
+     * Refreshed by the stabilization.
+     */
+    private final List<Node> predecessors = new ArrayList<>();
+
+    /**
+     * Maximum number of nodes in the successor and predecessor lists
+     */
+    private final int neighborsListSize;
+
     /**
      * The id of the current node. Randomly generated
      */
-    private final UUID id = UUID.randomUUID();
+    private final NodeId id = NodeId.random();
+
+    /**
+     * Fingers used to skip parts of the ring when routing, null if the routing is done along the ring
+     */
+    private final FingerTable fingerTable;
+
+    /**
+     * Delay between the refreshes of two fingers, 0 if fingers are only resolved when joining the ring
+     */
+    private final long fixFingersPeriod;
+
+    /**
+     * Whether a finger refresh timer is pending, so rejoining the ring does not start a second one
+     */
+    private boolean fixingFingers = false;
+
+    /**
+     * Delay between two checks of our right node, 0 to disable the stabilization when nodes join one at a time
+     */
+    private final long stabilizePeriod;
+
+    /**
+     * Whether a stabilization timer is pending, so rejoining the ring does not start a second one
+     */
+    private boolean stabilizing = false;
+
+    /**
+     * The protocol id of the failure detector, {@link #NO_DETECTOR} if crashes are directly reported by the network
+     */
+    private final int detectorPid;
+
+    /**
+     * Addresses of the nodes suspected to have crashed by the failure detector
+     */
+    private final Set<Integer> suspected = new HashSet<>();
+
+    private long routingMessages = 0;
+    private long deliveredPackets = 0;
 
-    // Initial logger uses the UUID to bez identifiable, will then be changed to the node index
-    private Logger logger = LoggerFactory.getLogger(String.format("Transport %016x", id.getMostSignificantBits()));
+    // Initial logger uses the id to bez identifiable, will then be changed to the node index
+    private Logger logger = LoggerFactory.getLogger(String.format("Transport %016x", id.getHigh()));
 
     public Transport(String prefix) {
 
         this.prefix = prefix;
         this.targetPid = Configuration.getPid(prefix + ".target");
-//        this.applicationPid = Configuration.getPid("application");
-        this.applicationPid = 0; // not used for the moment
+        this.applicationPid = Configuration.getPid(prefix + ".application");
+        this.detectorPid = Configuration.contains(prefix + ".detector")
+                ? Configuration.getPid(prefix + ".detector")
+                : NO_DETECTOR;
+
+        String routing = Configuration.getString(prefix + ".routing", ROUTING_RING);
+        if (ROUTING_FINGER.equals(routing)) {
+            // log2(N) fingers, plus one as ids are not evenly distributed
+            int networkSize = Configuration.getInt("network.size");
+            int defaultSize = Math.min(128, 65 - Long.numberOfLeadingZeros(networkSize - 1));
+            this.fingerTable = new FingerTable(this.id, Configuration.getInt(prefix + ".fingers", defaultSize));
+        } else if (ROUTING_RING.equals(routing)) {
+            this.fingerTable = null;
+        } else {
+            throw new IllegalParameterException(prefix + ".routing", "Unknown routing mode: " + routing);
+        }
+        this.fixFingersPeriod = Configuration.getLong(prefix + ".fixfingers", 0);
+        this.stabilizePeriod = Configuration.getLong(prefix + ".stabilize", 0);
+        this.neighborsListSize = Configuration.getInt(prefix + ".successors", 3);
+        this.underlay = new Underlay(prefix);
+
+        this.addressesCache = AddressCache.create(
+                prefix + ".cache.policy",
+                Configuration.getString(prefix + ".cache.policy", AddressCache.POLICY_LRU),
+                Configuration.getInt(prefix + ".cache.capacity", 128)
+        );
     }
 
 
 
     @Override
     public void send(Node src, Node dest, Object packet, int pid) {
-        EDSimulator.add(getLatency(src, dest), packet, dest, pid);
+        long latency = getLatency(src, dest);
+        EDSimulator.add(latency, packet, dest, pid);
+
+        // the packet is a sign of life for the failure detector of the destination, which records it on arrival
+        if (this.detectorPid != NO_DETECTOR && dest != src) {
+            EDSimulator.add(latency, new TrafficPacket(src.getIndex()), dest, this.detectorPid);
+        }
     }
 
     /**
@@ -111,46 +227,136 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
     public void route(RoutablePacket packet) {
         if (this.isIdle()) throw new IllegalStateException("Node in idle state");
 
+        long targetHigh = packet.getTargetHigh();
+        long targetLow = packet.getTargetLow();
+
         // cache sender address
-        this.addressesCache.put(packet.getSender(), packet.getSenderAddress());
+        this.addressesCache.put(packet.getSenderHigh(), packet.getSenderLow(), packet.getSenderAddress());
+
+        if (this.id.is(targetHigh, targetLow)) {
+            this.handleRoutablePacket(packet);
+            return;
+        }
 
+        if (this.intercept(packet)) return;
 
-        Integer cachedAddress = this.addressesCache.get(packet.getTarget());
+        this.repairNeighbors();
+        Node cachedNode = this.getCachedNode(targetHigh, targetLow);
 
-        if (!packet.getTarget().equals(this.id) && cachedAddress != null) {
-            logger.trace("Routing packet directly to {} ({}) (address was cached)", cachedAddress, packet.getTarget());
-            this.send(Network.get(cachedAddress), packet);
-        } else if (packet.getTarget().compareTo(this.id) > 0) { // packet.target > this.id
-            // route to right node
-            if (packet.getTarget().compareTo(getNodeId(this.right)) < 0) {
+        if (cachedNode != null) {
+            logger.trace("Routing packet directly to {} (address was cached)", cachedNode.getIndex());
+            this.forward(cachedNode, packet);
+        } else if (this.fingerTable != null) {
+            this.routeWithFingers(packet);
+        } else if (this.id.isClockwise(targetHigh, targetLow)) {
+            // route to right node, the target is closer going right even if we have to go past the end of the ring
+            if (NodeId.isBetween(targetHigh, targetLow, this.id, getNodeId(this.right))) {
                 // the destination node should be placed between us and the right node
                 // hence this node is missing, it may have left the ring
                 this.nodeNotFoundWhenRouting(packet);
             } else {
                 logger.trace("Routing packet to right: {} ({})", this.right.getIndex(), getNodeId(this.right));
-                this.send(this.right, packet);
+                this.forward(this.right, packet);
             }
-        } else if (packet.getTarget().compareTo(this.id) < 0) {
-            // route to left node
-            if (packet.getTarget().compareTo(getNodeId(this.left)) > 0) {
+        } else {
+            // route to left node, the target is closer going left even if we have to go past the start of the ring
+            if (NodeId.isBetween(targetHigh, targetLow, getNodeId(this.left), this.id)) {
                 // the destination node should be placed between us and the left node
                 // hence this node is missing, it may have left the ring
                 this.nodeNotFoundWhenRouting(packet);
             } else {
                 logger.trace("Routing packet to left: {} ({})", this.left.getIndex(), getNodeId(this.left));
-                this.send(this.left, packet);
+                this.forward(this.left, packet);
             }
+        }
+    }
+
+    /**
+     * Let the application look at a packet of another node going through us, it may answer it in place of its target
+     * @param packet the packet to route
+     * @return true if the application answered the packet, which must not be forwarded
+     */
+    private boolean intercept(RoutablePacket packet) {
+        if (this.id.is(packet.getSenderHigh(), packet.getSenderLow())) return false;
+
+        Object application = this.localNode.getProtocol(this.applicationPid);
+        return application instanceof RouteInterceptor
+                && ((RouteInterceptor) application).intercept(this.localNode, packet);
+    }
+
+    /**
+     * Look for the address of a node in the cache. The node found at this address is checked to still be the one we
+     * expect: it may have left the ring or crashed, or the network may have been reindexed since we cached it. In such
+     * case, the address is removed from the cache and the packet will be routed.
+     * @param targetHigh the most significant bits of the id of the node
+     * @param targetLow the least significant bits of the id of the node
+     * @return the node or null if its address is not cached or is not valid anymore
+     */
+    private Node getCachedNode(long targetHigh, long targetLow) {
+        int address = this.addressesCache.get(targetHigh, targetLow);
+        if (address == AddressCache.MISSING) return null;
+
+        Node node = address < Network.size() ? Network.get(address) : null;
+        if (node != null && this.isAlive(node) && !getTransport(node).isIdle() && getNodeId(node).is(targetHigh, targetLow)) {
+            return node;
+        }
+
+        logger.trace("Cached address {} is not valid anymore", address);
+        this.addressesCache.invalidate(targetHigh, targetLow);
+        return null;
+    }
+
+    /**
+     * Route a packet using the finger table, the packet is sent to the finger that is the closest to the target
+     * without exceeding it, or to our right node if it is the target
+     * @param packet the packet to route
+     */
+    private void routeWithFingers(RoutablePacket packet) {
+        long targetHigh = packet.getTargetHigh();
+        long targetLow = packet.getTargetLow();
+        NodeId rightId = getNodeId(this.right);
+
+        if (rightId.is(targetHigh, targetLow)) {
+            logger.trace("Routing packet to right: {} ({})", this.right.getIndex(), rightId);
+            this.forward(this.right, packet);
+        } else if (NodeId.isBetween(targetHigh, targetLow, this.id, rightId)) {
+            // the destination node should be placed between us and the right node
+            // hence this node is missing, it may have left the ring
+            this.nodeNotFoundWhenRouting(packet);
         } else {
-            this.handleRoutablePacket(packet);
+            Node next = this.closestPrecedingNode(targetHigh, targetLow);
+            logger.trace("Routing packet to finger: {} ({})", next.getIndex(), getNodeId(next));
+            this.forward(next, packet);
         }
     }
 
-    public void sendMessage(UUID target, String message) {
+    /**
+     * Find the known node that is the closest to an id while preceding it
+     * @param targetHigh the most significant bits of the id to reach
+     * @param targetLow the least significant bits of the id to reach
+     * @return the closest finger or our right node if no finger precedes the target
+     */
+    private Node closestPrecedingNode(long targetHigh, long targetLow) {
+        Node finger = this.fingerTable.closestPrecedingNode(targetHigh, targetLow, this::isAlive);
+        return finger == null ? this.right : finger;
+    }
+
+    /**
+     * Send a routable packet to the next node on its way
+     * @param next the next node
+     * @param packet the packet
+     */
+    private void forward(Node next, RoutablePacket packet) {
+        this.routingMessages++;
+        this.send(next, packet);
+    }
+
+    public void sendMessage(NodeId target, String message) {
         this.route(new MessagePacket(this.localNode.getIndex(), this.id, target, message));
     }
 
     private void nodeNotFoundWhenRouting(RoutablePacket packet) {
-        if (packet.getSender().equals(this.id)) {
+        if (this.id.is(packet.getSenderHigh(), packet.getSenderLow())) {
             // no need to forward an error packet, we just notify the console
             logger.error("Node {} not found", packet.getTarget());
         } else {
@@ -174,6 +380,13 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
         if (event instanceof DiscoveryPacket) this.onDiscoverPacket((DiscoveryPacket) event);
         else if (event instanceof WelcomePacket) this.onWelcomePacket((WelcomePacket) event);
         else if (event instanceof SwitchNeighborPacket) this.onSwitchNeighborPacket((SwitchNeighborPacket) event);
+        else if (event instanceof FingerLookupPacket) this.onFingerLookupPacket((FingerLookupPacket) event);
+        else if (event instanceof FingerPacket) this.onFingerPacket((FingerPacket) event);
+        else if (event instanceof FixFingersPacket) this.onFixFingersPacket();
+        else if (event instanceof StabilizePacket) this.onStabilizePacket();
+        else if (event instanceof PredecessorRequestPacket) this.onPredecessorRequestPacket((PredecessorRequestPacket) event);
+        else if (event instanceof PredecessorPacket) this.onPredecessorPacket((PredecessorPacket) event);
+        else if (event instanceof NotifyPacket) this.onNotifyPacket((NotifyPacket) event);
         else if (event instanceof RoutablePacket) this.onRoutablePacket((RoutablePacket) event);
         else if (event instanceof ApplicationPacket) this.sendToApplication((ApplicationPacket) event);
         else throw new IllegalArgumentException("Event not recognized: " + event);
@@ -184,10 +397,16 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
      * @param packet the packet received
      */
     private void onRoutablePacket(RoutablePacket packet) {
+        if (this.isIdle()) {
+            // we are still waiting for our welcome, or we left the ring, let a node of the ring route the packet
+            this.send(DHTProject.getRandomAwakenNode(), packet);
+            return;
+        }
         this.route(packet);
     }
 
     private void handleRoutablePacket(RoutablePacket packet) {
+        this.deliveredPackets++;
         if (packet instanceof MessagePacket) this.onMessagePacket((MessagePacket) packet);
         if (packet instanceof UndeliverableRoutablePacket) this.onUndeliverableRoutablePacket((UndeliverableRoutablePacket) packet);
         if (packet instanceof ApplicationPacket) this.sendToApplication((ApplicationPacket) packet);
@@ -199,6 +418,10 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
 
     private void onUndeliverableRoutablePacket(UndeliverableRoutablePacket packet) {
         logger.error("Was not able to deliver a message to {}: {}", packet.getOriginalPacket().getTarget(), packet.getReason());
+        // let the application know its request will never be answered
+        if (packet.getOriginalPacket() instanceof ApplicationPacket) {
+            EDSimulator.add(0, packet, this.localNode, this.applicationPid);
+        }
     }
 
     /**
@@ -208,6 +431,14 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
     private void onDiscoverPacket(DiscoveryPacket packet) {
         Node newNode = Network.get(packet.getAddress());
 
+        if (this.isIdle()) {
+            // we left the ring while the discovery was on its way, hand it over to a node of the ring
+            this.send(DHTProject.getRandomAwakenNode(), packet);
+            return;
+        }
+
+        this.repairNeighbors();
+
         // are we the initial node?
         if (this.left.equals(this.right) && getNodeId(this.left).equals(this.id)) {
             WelcomePacket welcomePacket = new WelcomePacket(this.localNode.getIndex(), this.localNode.getIndex());
@@ -216,30 +447,23 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
             this.left = newNode;
             logger.debug("Joining {} to form a ring of size 2", packet.getAddress());
         }
-        else if (packet.getNodeId().compareTo(this.id) > 0) { // packet.nodeId > this.id
-            // the sender has a greater id than the local node
-            // should be on the right
-            UUID rightId = getNodeId(this.right);
-
-            if (
-                    // the node is inferior to our right node
-                    packet.getNodeId().compareTo(rightId) < 0 // packet.nodeId < rightId
-                    // Our right node is inferior than the current node. We are the last node in the ring and the new node
-                    // is greater than the local node. We add the node at the end of the ring
-                    || this.id.compareTo(rightId) > 0 // this.id > rightId
-            ) {
+        else if (this.fingerTable != null) {
+            // with fingers, the discovery only goes clockwise until it reaches the predecessor of the new node
+            if (packet.getNodeId().isBetween(this.id, getNodeId(this.right))) this.welcomeAsRight(newNode, packet);
+            else {
+                Node next = this.closestPrecedingNode(packet.getNodeIdHigh(), packet.getNodeIdLow());
+                this.logger.trace(
+                        "Following discovery of {} ({}) to {} ({})",
+                        packet.getAddress(), packet.getNodeId(), next.getIndex(), getNodeId(next)
+                );
+                this.send(next, packet);
+            }
+        }
+        else if (this.id.isClockwise(packet.getNodeIdHigh(), packet.getNodeIdLow())) {
+            // the sender is closer on our right, possibly past the end of the ring
+            if (packet.getNodeId().isBetween(this.id, getNodeId(this.right))) {
                 // the node should be placed between the right and the local node
-
-                // send back neighbors addresses to the node that joined the cluster
-                this.logger.debug("Welcoming node {} ({}) as my new right node", packet.getAddress(), packet.getNodeId());
-                WelcomePacket welcomePacket = new WelcomePacket(this.localNode.getIndex(), this.right.getIndex());
-                this.send(newNode, welcomePacket);
-
-                // Notify the right node that his left node has changed
-                this.logger.debug("Notifying node {} ({}) of their new left node", this.right.getIndex(), getNodeId(this.right));
-                SwitchNeighborPacket switchNeighbor = new SwitchNeighborPacket(LEFT, packet.getAddress());
-                this.send(this.right, switchNeighbor);
-                this.right = newNode;
+                this.welcomeAsRight(newNode, packet);
             } else {
                 // the node should be placed after the right node
                 // we follow the packet to the next node in the ring
@@ -252,29 +476,10 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
         }
 
         else {
-            // the sender has an inferior id than the local node
-            // should be on the left
-            UUID leftId = getNodeId(this.left);
-
-            if(
-                    // the node is greater than the left node
-                    packet.getNodeId().compareTo(leftId) > 0 // packet.nodeId > leftId
-                    // Our left node is greater than the current node. We are the first node in the ring and the new node
-                    // is less than the local node. We add the node at the beginning of the ring
-                    || this.id.compareTo(leftId) < 0 // this.id < leftId
-            ) {
+            // the sender is closer on our left, possibly past the start of the ring
+            if (packet.getNodeId().isBetween(getNodeId(this.left), this.id)) {
                 // the node should be placed between the left and the local node
-
-                // send back neighbors addresses to the node that joined the cluster
-                this.logger.debug("Welcoming node {} ({}) as my new left node", packet.getAddress(), packet.getNodeId());
-                WelcomePacket welcomePacket = new WelcomePacket(this.left.getIndex(), this.localNode.getIndex());
-                this.send(newNode, welcomePacket);
-
-                // Notify the left node that his right node has changed
-                this.logger.debug("Notifying node {} ({}) of their new right node", this.left.getIndex(), getNodeId(this.left));
-                SwitchNeighborPacket switchNeighbor = new SwitchNeighborPacket(RIGHT, packet.getAddress());
-                this.send(this.left, switchNeighbor);
-                this.left = newNode;
+                this.welcomeAsLeft(newNode, packet);
             } else {
                 // the node should be placed after the left node
                 // we follow the packet to the next node in the ring
@@ -287,17 +492,352 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
         }
     }
 
+    /**
+     * Insert the new node between the local node and its right node
+     * @param newNode the node joining the ring
+     * @param packet the discovery packet of the new node
+     */
+    private void welcomeAsRight(Node newNode, DiscoveryPacket packet) {
+        // send back neighbors addresses to the node that joined the cluster
+        this.logger.debug("Welcoming node {} ({}) as my new right node", packet.getAddress(), packet.getNodeId());
+        WelcomePacket welcomePacket = new WelcomePacket(this.localNode.getIndex(), this.right.getIndex());
+        this.send(newNode, welcomePacket);
+
+        // Notify the right node that his left node has changed
+        this.logger.debug("Notifying node {} ({}) of their new left node", this.right.getIndex(), getNodeId(this.right));
+        SwitchNeighborPacket switchNeighbor = new SwitchNeighborPacket(LEFT, packet.getAddress());
+        this.send(this.right, switchNeighbor);
+        this.right = newNode;
+    }
+
+    /**
+     * Insert the new node between the local node and its left node
+     * @param newNode the node joining the ring
+     * @param packet the discovery packet of the new node
+     */
+    private void welcomeAsLeft(Node newNode, DiscoveryPacket packet) {
+        // send back neighbors addresses to the node that joined the cluster
+        this.logger.debug("Welcoming node {} ({}) as my new left node", packet.getAddress(), packet.getNodeId());
+        WelcomePacket welcomePacket = new WelcomePacket(this.left.getIndex(), this.localNode.getIndex());
+        this.send(newNode, welcomePacket);
+
+        // Notify the left node that his right node has changed
+        this.logger.debug("Notifying node {} ({}) of their new right node", this.left.getIndex(), getNodeId(this.left));
+        SwitchNeighborPacket switchNeighbor = new SwitchNeighborPacket(RIGHT, packet.getAddress());
+        this.send(this.left, switchNeighbor);
+        this.left = newNode;
+    }
+
     /**
      * We got an answer from the ring and we now know the addresses of our neighbors
      * @param packet the packet received
      */
     private void onWelcomePacket(WelcomePacket packet) {
-        this.left = Network.get(packet.getLeft());
-        this.right = Network.get(packet.getRight());
+        // another node may have joined next to us and told us about it before the welcome reached us
+        if (this.left == null) this.left = Network.get(packet.getLeft());
+        if (this.right == null) this.right = Network.get(packet.getRight());
+        this.resetNeighborsLists();
         this.idle = false;
+        DHTProject.getAwakenNodes().add(this.localNode);
         this.logger.debug("Awaken and joined the ring (left={}, right={})", packet.getLeft(), packet.getRight());
         this.logger.debug("The ring has now a size of {}", DHTProject.getAwakenNodesCount());
-        this.sendToApplication(new ApplicationPacket.InitApplication());
+        this.initFingers();
+        this.startStabilization();
+        this.sendToApplication(new ApplicationPacket.InitApplication(true));
+    }
+
+    /**
+     * Build the finger table once we know our right node, every finger starts pointing to the right node and is
+     * then resolved through a lookup on the ring
+     */
+    private void initFingers() {
+        if (this.fingerTable == null) return;
+
+        this.fingerTable.fill(this.right);
+        for (int i = 0; i < this.fingerTable.size(); i++) {
+            this.onFingerLookupPacket(new FingerLookupPacket(this.localNode.getIndex(), i, this.fingerTable.start(i)));
+        }
+
+        this.startFixingFingers();
+    }
+
+    /**
+     * A node is looking for the node following a key. If the key is between us and our right node, our right node is
+     * the one looked for, otherwise the lookup is forwarded to the closest preceding node.
+     * @param packet the packet received
+     */
+    private void onFingerLookupPacket(FingerLookupPacket packet) {
+        if (this.isIdle()) {
+            // we left the ring meanwhile, the finger will be resolved at the next refresh
+            this.logger.debug("Dropping finger lookup from {}, not part of the ring", packet.getAddress());
+            return;
+        }
+
+        NodeId rightId = getNodeId(this.right);
+        long keyHigh = packet.getKeyHigh();
+        long keyLow = packet.getKeyLow();
+
+        if (rightId.is(keyHigh, keyLow) || NodeId.isBetween(keyHigh, keyLow, this.id, rightId)) {
+            // the successor list starts with our right node
+            List<Node> candidates = this.successors.isEmpty() ? Collections.singletonList(this.right) : this.successors;
+            FingerPacket response = new FingerPacket(packet.getIndex(), addresses(candidates));
+            this.send(Network.get(packet.getAddress()), response);
+        } else {
+            this.send(this.closestPrecedingNode(keyHigh, keyLow), packet);
+        }
+    }
+
+    /**
+     * A finger lookup has been resolved
+     * @param packet the packet received
+     */
+    private void onFingerPacket(FingerPacket packet) {
+        if (this.isIdle()) return;
+
+        List<Node> candidates = new ArrayList<>();
+        for (int address : packet.getAddresses()) candidates.add(Network.get(address));
+
+        Node finger = this.selectFinger(packet.getIndex(), candidates);
+        this.fingerTable.set(packet.getIndex(), finger);
+        this.logger.trace("Finger {} resolved to node {}", packet.getIndex(), finger.getIndex());
+    }
+
+    /**
+     * Choose a finger among the nodes following its start. Any node covered by the finger keeps the routing in
+     * O(log N) hops, so the one with the lowest latency is chosen when the latency reflects a topology, the first
+     * one otherwise.
+     * @param index the index of the finger
+     * @param candidates the nodes following the start of the finger, in ring order
+     * @return the finger
+     */
+    public Node selectFinger(int index, List<Node> candidates) {
+        List<Node> covered = new ArrayList<>();
+        covered.add(candidates.get(0));
+        for (int i = 1; i < candidates.size(); i++) {
+            Node candidate = candidates.get(i);
+            if (this.isAlive(candidate) && this.fingerTable.covers(index, getNodeId(candidate))) covered.add(candidate);
+        }
+
+        return this.underlay.closest(this.localNode, covered);
+    }
+
+    /**
+     * Periodically refresh one of our fingers, the refresh stops once we leave the ring
+     */
+    private void onFixFingersPacket() {
+        if (this.isIdle()) {
+            this.fixingFingers = false;
+            return;
+        }
+
+        int index = this.fingerTable.nextToFix();
+        this.onFingerLookupPacket(new FingerLookupPacket(this.localNode.getIndex(), index, this.fingerTable.start(index)));
+        EDSimulator.add(this.fixFingersPeriod, new FixFingersPacket(), this.localNode, this.targetPid);
+    }
+
+    private void startFixingFingers() {
+        if (this.fingerTable == null || this.fixFingersPeriod == 0 || this.fixingFingers) return;
+
+        this.fixingFingers = true;
+        EDSimulator.add(this.fixFingersPeriod, new FixFingersPacket(), this.localNode, this.targetPid);
+    }
+
+    private void startStabilization() {
+        if (this.stabilizePeriod == 0 || this.stabilizing) return;
+
+        this.stabilizing = true;
+        EDSimulator.add(this.stabilizePeriod, new StabilizePacket(), this.localNode, this.targetPid);
+    }
+
+    /**
+     * Periodically ask our right node for its left node. As nodes joining at the same place of the ring may be
+     * welcomed with outdated neighbors, this lets each node find the closest node on its right and notify it, until
+     * every left and right pointer is consistent. The stabilization stops once we leave the ring.
+     */
+    private void onStabilizePacket() {
+        if (this.isIdle()) {
+            this.stabilizing = false;
+            return;
+        }
+
+        this.repairNeighbors();
+        if (this.right != this.localNode) {
+            this.send(this.right, new PredecessorRequestPacket(this.localNode.getIndex()));
+        }
+        EDSimulator.add(this.stabilizePeriod, new StabilizePacket(), this.localNode, this.targetPid);
+    }
+
+    private void onPredecessorRequestPacket(PredecessorRequestPacket packet) {
+        if (this.isIdle()) return;
+        this.send(Network.get(packet.getAddress()), new PredecessorPacket(
+                this.left.getIndex(), addresses(this.successors), this.getSummary()
+        ));
+    }
+
+    /**
+     * Our right node told us its left node. If it is between us and our right node, a node joined there without us
+     * knowing and it becomes our right node. Either way, we rebuild our successor list from the one of our right node
+     * and notify our right node that we precede it.
+     * @param packet the packet received
+     */
+    private void onPredecessorPacket(PredecessorPacket packet) {
+        if (this.isIdle()) return;
+
+        List<Node> successors = new ArrayList<>();
+        Node predecessor = Network.get(packet.getAddress());
+        if (this.isAlive(predecessor) && !getTransport(predecessor).isIdle()
+                && getNodeId(predecessor).isBetween(this.id, getNodeId(this.right))) {
+            this.logger.debug("Stabilization: right neighbor {} replaced by {}", this.right.getIndex(), packet.getAddress());
+            successors.add(predecessor);
+        }
+        successors.add(this.right);
+        for (int address : packet.getSuccessors()) successors.add(Network.get(address));
+
+        this.right = successors.get(0);
+        this.updateNeighborsList(this.successors, successors);
+        if (this.right != this.localNode) {
+            this.send(this.right, new NotifyPacket(
+                    this.localNode.getIndex(), addresses(this.predecessors), this.getSummary()
+            ));
+        }
+        this.onSummary(packet.getSummary());
+    }
+
+    /**
+     * A node believes it precedes us, it becomes our left node if it is closer than our current one or if our left
+     * node left the ring
+     * @param packet the packet received
+     */
+    private void onNotifyPacket(NotifyPacket packet) {
+        if (this.isIdle()) return;
+
+        Node candidate = Network.get(packet.getAddress());
+        if (candidate != this.left && (!this.isAlive(this.left) || getTransport(this.left).isIdle()
+                || getNodeId(candidate).isBetween(getNodeId(this.left), this.id))) {
+            this.logger.debug("Stabilization: left neighbor {} replaced by {}", this.left.getIndex(), packet.getAddress());
+            this.left = candidate;
+        }
+
+        if (candidate == this.left) {
+            List<Node> predecessors = new ArrayList<>();
+            predecessors.add(candidate);
+            for (int address : packet.getPredecessors()) predecessors.add(Network.get(address));
+            this.updateNeighborsList(this.predecessors, predecessors);
+        }
+        this.onSummary(packet.getSummary());
+    }
+
+    /**
+     * @return the summary of the keys of the application, piggybacked on the stabilization packets, or null
+     */
+    private KeySummary getSummary() {
+        Object application = this.localNode.getProtocol(this.applicationPid);
+        return application instanceof SummaryExchange ? ((SummaryExchange) application).getSummary() : null;
+    }
+
+    /**
+     * Hand the summary of the keys of a neighbor, received along with a stabilization packet, to the application
+     * @param summary the summary, null if the neighbor does not summarize its keys
+     */
+    private void onSummary(KeySummary summary) {
+        Object application = this.localNode.getProtocol(this.applicationPid);
+        if (summary != null && application instanceof SummaryExchange) ((SummaryExchange) application).onSummary(summary);
+    }
+
+    /**
+     * Replace our neighbors that crashed by the first live node of our successor or predecessor list. The new right
+     * node is notified right away so it replaces its own left node, which is the node that crashed.
+     */
+    private void repairNeighbors() {
+        if (!this.isAlive(this.right)) {
+            Node next = this.firstAlive(this.successors);
+            if (next == null) {
+                this.logger.error("Right node {} crashed and no successor is alive", this.right.getIndex());
+            } else {
+                this.logger.info("Right node {} crashed, splicing the ring to {}", this.right.getIndex(), next.getIndex());
+                this.right = next;
+                this.successors.removeIf(node -> !this.isAlive(node));
+                if (next != this.localNode) {
+                    this.send(next, new NotifyPacket(
+                            this.localNode.getIndex(), addresses(this.predecessors), this.getSummary()
+                    ));
+                }
+            }
+        }
+
+        if (!this.isAlive(this.left)) {
+            Node previous = this.firstAlive(this.predecessors);
+            if (previous == null) {
+                this.logger.error("Left node {} crashed and no predecessor is alive", this.left.getIndex());
+            } else {
+                this.logger.info("Left node {} crashed, splicing the ring to {}", this.left.getIndex(), previous.getIndex());
+                this.left = previous;
+                this.predecessors.removeIf(node -> !this.isAlive(node));
+            }
+        }
+    }
+
+    private Node firstAlive(List<Node> nodes) {
+        for (Node node : nodes) {
+            if (this.isAlive(node)) return node;
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a node is believed to be alive. Without failure detector, the network is trusted to report sends to
+     * a crashed node, hence the global {@link Node#isUp()}. With a failure detector, a node is alive until suspected.
+     * @param node the node to check
+     * @return false if the node crashed or is suspected to
+     */
+    public boolean isAlive(Node node) {
+        if (this.detectorPid == NO_DETECTOR) return node.isUp();
+        return !this.suspected.contains(node.getIndex());
+    }
+
+    /**
+     * Called by the failure detector when a node stopped answering, it is spliced out of the ring if it is one of our
+     * neighbors and is not used for routing anymore
+     * @param node the suspected node
+     */
+    public void suspect(Node node) {
+        if (!this.suspected.add(node.getIndex())) return;
+
+        this.logger.debug("Node {} is suspected to have crashed", node.getIndex());
+        if (!this.isIdle()) this.repairNeighbors();
+    }
+
+    /**
+     * Called by the failure detector when a suspected node showed a sign of life
+     * @param node the node
+     */
+    public void unsuspect(Node node) {
+        if (this.suspected.remove(node.getIndex())) this.logger.debug("Node {} is not suspected anymore", node.getIndex());
+    }
+
+    /**
+     * Replace a successor or predecessor list, dropping ourselves and the duplicates found when the ring is smaller
+     * than the list
+     * @param list the list to update
+     * @param nodes the new nodes of the list, closest first
+     */
+    private void updateNeighborsList(List<Node> list, List<Node> nodes) {
+        list.clear();
+        for (Node node : nodes) {
+            if (list.size() == this.neighborsListSize) return;
+            if (node != this.localNode && !list.contains(node)) list.add(node);
+        }
+    }
+
+    private void resetNeighborsLists() {
+        this.successors.clear();
+        this.predecessors.clear();
+        if (this.right != this.localNode) this.successors.add(this.right);
+        if (this.left != this.localNode) this.predecessors.add(this.left);
+    }
+
+    private static int[] addresses(List<Node> nodes) {
+        return nodes.stream().mapToInt(Node::getIndex).toArray();
     }
 
     /**
@@ -329,6 +869,9 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
         checkState(this.isIdle(), "The node is already awaken");
 
         this.localNode = localNode;
+        // neighbors are set by the welcome packet, or before it by the nodes joining next to us
+        this.left = null;
+        this.right = null;
         this.updateLogger();
 
         Node target = DHTProject.getRandomAwakenNode();
@@ -351,12 +894,41 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
         this.localNode = localNode;
         this.left = localNode;
         this.right = localNode;
+        this.resetNeighborsLists();
         this.idle = false;
+        DHTProject.getAwakenNodes().add(localNode);
         this.updateLogger();
+        this.initFingers();
+        this.startStabilization();
+        this.sendToApplication(new ApplicationPacket.InitApplication(true));
 
         this.logger.info("Awaken as initial node");
     }
 
+    /**
+     * Initialize this node as part of a ring built at once by {@link BulkRingInitializer}, the neighbors and the
+     * fingers being resolved by the initializer instead of the discovery and the finger lookups
+     * @param localNode the local node
+     * @param predecessors the nodes preceding this one on the ring, closest first
+     * @param successors the nodes following this one on the ring, closest first
+     */
+    public void awakeInRing(Node localNode, List<Node> predecessors, List<Node> successors) {
+        checkState(this.isIdle(), "The node is already awaken");
+
+        this.localNode = localNode;
+        this.left = predecessors.get(0);
+        this.right = successors.get(0);
+        this.updateNeighborsList(this.predecessors, predecessors);
+        this.updateNeighborsList(this.successors, successors);
+        this.idle = false;
+        DHTProject.getAwakenNodes().add(localNode);
+        this.updateLogger();
+
+        this.startFixingFingers();
+        this.startStabilization();
+        this.sendToApplication(new ApplicationPacket.InitApplication(false));
+    }
+
     /**
      * Leave the ring and notify the its left and right neighbors that their respective right and left neighbor have
      * change
@@ -366,18 +938,24 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
         this.logger.info("Leaving the ring (notifying neighbors)");
 
         this.idle = true;
+        DHTProject.getAwakenNodes().remove(this.localNode);
         SwitchNeighborPacket leftSwitch = new SwitchNeighborPacket(RIGHT, this.right.getIndex());
         SwitchNeighborPacket rightSwitch = new SwitchNeighborPacket(LEFT, this.left.getIndex());
         this.send(this.left, leftSwitch);
         this.send(this.right, rightSwitch);
         this.left = null;
         this.right = null;
+        this.successors.clear();
+        this.predecessors.clear();
+        if (this.fingerTable != null) this.fingerTable.clear();
+        this.addressesCache.clear();
+        this.sendToApplication(new ApplicationPacket.LeaveApplication());
     }
 
     private void updateLogger() {
         this.logger = LoggerFactory.getLogger(String.format(
                 "Transport %016x (Node %d)",
-                this.id.getMostSignificantBits(), this.localNode.getIndex()
+                this.id.getHigh(), this.localNode.getIndex()
         ));
     }
 
@@ -419,10 +997,6 @@ public class Transport implements EDProtocol, peersim.transport.Transport {
 
     @Override
     public long getLatency(Node src, Node dest) {
-        long min = Configuration.getInt(prefix + ".mindelay");
-        long max = Configuration.getInt(prefix + ".maxdelay");
-        long range = max-min;
-
-        return (range==1?min:min + CommonState.r.nextLong(range));
+        return this.underlay.getLatency(src, dest);
     }
 }
@@ -0,0 +1,87 @@
+package project;
+
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Node;
+
+import java.util.List;
+
+/**
+ * Latency of the links between the nodes of the overlay. By default, every packet gets a delay drawn uniformly between
+ * {@code mindelay} and {@code maxdelay}, regardless of the nodes it goes through. When the {@code underlay} parameter
+ * points to a transport aware of the topology, such as {@link peersim.transport.E2ETransport} fed by a
+ * {@link peersim.transport.KingParser} and a {@link peersim.transport.UniformRouterAssignment}, its latencies are used
+ * instead. As they are stable over time, the routing tables can then prefer the closest nodes among equivalent
+ * candidates.
+ */
+public class Underlay {
+    /**
+     * Returned by {@link #getUnderlayPid()} when the delays are drawn uniformly
+     */
+    public static final int NO_UNDERLAY = -1;
+
+    private final long minDelay;
+    private final long maxDelay;
+    private final int underlayPid;
+
+    /**
+     * Whether the routing tables select their entries by latency
+     */
+    private final boolean proximity;
+
+    public Underlay(String prefix) {
+        this.minDelay = Configuration.getLong(prefix + ".mindelay");
+        this.maxDelay = Configuration.getLong(prefix + ".maxdelay");
+        this.underlayPid = Configuration.contains(prefix + ".underlay")
+                ? Configuration.getPid(prefix + ".underlay")
+                : NO_UNDERLAY;
+        // selecting by latency is pointless if the latency is drawn again for each packet
+        this.proximity = this.underlayPid != NO_UNDERLAY && Configuration.getBoolean(prefix + ".proximity", true);
+    }
+
+    public int getUnderlayPid() {
+        return this.underlayPid;
+    }
+
+    public boolean isProximityAware() {
+        return this.proximity;
+    }
+
+    /**
+     * Compute the delay of a packet
+     * @param src the sender
+     * @param dest the receiver
+     * @return the delay of the packet
+     */
+    public long getLatency(Node src, Node dest) {
+        if (this.underlayPid != NO_UNDERLAY) {
+            return ((peersim.transport.Transport) src.getProtocol(this.underlayPid)).getLatency(src, dest);
+        }
+
+        long range = this.maxDelay - this.minDelay;
+        return range == 1 ? this.minDelay : this.minDelay + CommonState.r.nextLong(range);
+    }
+
+    /**
+     * Pick the candidate with the lowest latency from a node, the first candidate being kept on ties or if the
+     * selection by latency is disabled
+     * @param from the node that will send packets to the candidate
+     * @param candidates the candidates, in order of preference for the routing
+     * @return the selected candidate, null if there is no candidate
+     */
+    public Node closest(Node from, List<Node> candidates) {
+        if (candidates.isEmpty()) return null;
+        if (!this.proximity) return candidates.get(0);
+
+        Node closest = null;
+        long best = Long.MAX_VALUE;
+        for (Node candidate : candidates) {
+            long latency = this.getLatency(from, candidate);
+            if (latency < best) {
+                best = latency;
+                closest = candidate;
+            }
+        }
+        return closest;
+    }
+}
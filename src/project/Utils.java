@@ -3,17 +3,19 @@ package project;
 import peersim.core.Network;
 import peersim.core.Node;
 
-import java.util.UUID;
-
 public class Utils {
-    public static UUID getNodeId(Node node) {
-        return ((Transport)node.getProtocol(DHTProject.getTransportPid())).getId();
+    public static NodeId getNodeId(Node node) {
+        return getRoutingEngine(node).getId();
     }
 
-    public static UUID getNodeId(int node) {
+    public static NodeId getNodeId(int node) {
         return getNodeId(Network.get(node));
     }
 
+    public static RoutingEngine getRoutingEngine(Node node) {
+        return ((RoutingEngine)node.getProtocol(DHTProject.getTransportPid()));
+    }
+
     public static Transport getTransport(Node node) {
         return ((Transport)node.getProtocol(DHTProject.getTransportPid()));
     }
@@ -0,0 +1,95 @@
+package project;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of values read from the hash table, each of them being served until a given expiration time. Used by
+ * the nodes to keep the values of the get responses routed through them, and by the clients to keep the values they
+ * hold a lease on. The least recently used value is evicted once the cache is full.
+ */
+@Getter
+public class ValueCache {
+    private final int capacity;
+    private final LinkedHashMap<Object, Entry> values;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long expirations = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public ValueCache(int capacity) {
+        this.capacity = capacity;
+        this.values = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                if (this.size() <= ValueCache.this.capacity) return false;
+                ValueCache.this.evictions++;
+                return true;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return this.capacity > 0;
+    }
+
+    /**
+     * Get a cached value that did not expire yet
+     * @param key the key
+     * @param now the current simulation time
+     * @return the value or null
+     */
+    public Object get(Object key, long now) {
+        Entry entry = this.values.get(key);
+        if (entry != null && entry.expiration <= now) {
+            this.values.remove(key);
+            this.expirations++;
+            entry = null;
+        }
+
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return entry.value;
+    }
+
+    /**
+     * Cache a value
+     * @param key the key
+     * @param value the value
+     * @param expiration the simulation time from which the value is not served anymore
+     */
+    public void put(Object key, Object value, long expiration) {
+        if (this.isEnabled()) this.values.put(key, new Entry(value, expiration));
+    }
+
+    public void invalidate(Object key) {
+        if (this.values.remove(key) != null) this.invalidations++;
+    }
+
+    public int size() {
+        return this.values.size();
+    }
+
+    public void clear() {
+        this.values.clear();
+    }
+
+    @RequiredArgsConstructor
+    private static class Entry {
+        private final Object value;
+
+        /**
+         * Simulation time from which the value is not served anymore
+         */
+        private final long expiration;
+    }
+}
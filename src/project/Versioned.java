@@ -0,0 +1,83 @@
+package project;
+
+import com.google.common.collect.ImmutableMap;
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * Value stored by the hash table along with the version of the write that produced it. Writes are ordered by the
+ * hybrid logical clock of their coordinator, ties being broken by its address. The vector clock counts the writes of
+ * the key coordinated by each node, it is only maintained to detect concurrent writes and stays empty otherwise.
+ *
+ * <p>A deleted key is stored as a tombstone with no value, so the delete replicates and wins over the older versions
+ * like any other write. Tombstones expire once the replicas had time to converge, as do the values written with a time
+ * to live.
+ */
+@Value
+public class Versioned implements Comparable<Versioned> {
+    /**
+     * Expiration of the versions that never expire
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * The value, null for a tombstone
+     */
+    Object value;
+
+    /**
+     * Physical part of the hybrid logical clock of the coordinator when it accepted the write
+     */
+    long time;
+
+    /**
+     * Logical part of the hybrid logical clock, ordering the writes sharing the same physical time
+     */
+    int counter;
+
+    /**
+     * Address of the coordinator of the write
+     */
+    int coordinator;
+
+    /**
+     * Number of writes of the key coordinated by each node, by address
+     */
+    ImmutableMap<Integer, Long> clock;
+
+    /**
+     * Simulation time at which the version is dropped, {@link #NEVER} if it does not expire
+     */
+    long expiration;
+
+    public boolean isTombstone() {
+        return this.value == null;
+    }
+
+    public boolean isExpired(long now) {
+        return this.expiration <= now;
+    }
+
+    /**
+     * Order two versions by their timestamps, the most recent being the greatest
+     */
+    @Override
+    public int compareTo(Versioned other) {
+        if (this.time != other.time) return Long.compare(this.time, other.time);
+        if (this.counter != other.counter) return Integer.compare(this.counter, other.counter);
+        return Integer.compare(this.coordinator, other.coordinator);
+    }
+
+    /**
+     * Check whether this version has seen every write another version has seen
+     * @param other the other version
+     * @return true if each entry of our vector clock is at least the matching entry of the other clock
+     */
+    public boolean descendsFrom(Versioned other) {
+        for (Map.Entry<Integer, Long> entry : other.clock.entrySet()) {
+            if (this.clock.getOrDefault(entry.getKey(), 0L) < entry.getValue()) return false;
+        }
+        return true;
+    }
+}
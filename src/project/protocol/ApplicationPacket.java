@@ -1,40 +1,568 @@
 package project.protocol;
 
 import lombok.Value;
+import project.NodeId;
+import project.Versioned;
 
-import java.util.UUID;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface ApplicationPacket extends Packet {
-    class InitApplication implements ApplicationPacket {}
+    @Value
+    class InitApplication implements ApplicationPacket {
+        /**
+         * Whether the node must ask the nodes that owned its ranges for its keys, not needed when the whole ring is
+         * built at once before any key is stored
+         */
+        boolean requestingKeys;
+    }
+
+    class LeaveApplication implements ApplicationPacket {}
 
     @Value
-    class PutPacket implements ApplicationPacket {
+    class PutPacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
         Object key;
         Object value;
+
+        /**
+         * Time to live of the value, {@link #NO_TTL} for a value that does not expire
+         */
+        long ttl;
+
+        public static final long NO_TTL = 0;
+
+        public PutPacket(
+                int senderAddress, NodeId sender, NodeId target,
+                long request, Object key, Object value, long ttl
+        ) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.key = key;
+            this.value = value;
+            this.ttl = ttl;
+        }
     }
 
+    /**
+     * Delete of a key, routed to its owner which coordinates it like a put of a tombstone
+     */
     @Value
-    class ReplicationPacket implements ApplicationPacket {
+    class DeletePacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
         Object key;
-        Object value;
 
-        public static ReplicationPacket from(PutPacket packet) {
-            return new ReplicationPacket(packet.getKey(), packet.getValue());
+        public DeletePacket(int senderAddress, NodeId sender, NodeId target, long request, Object key) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.key = key;
         }
     }
 
+    /**
+     * Answer of the coordinator of a put or a delete once the write quorum is reached
+     */
+    @Value
+    class PutResponsePacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
+
+        public PutResponsePacket(int senderAddress, NodeId sender, NodeId target, long request) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+        }
+    }
+
+    /**
+     * Scheduled by a client when it sends a put, a delete or a batch of puts, fired if the write has not been
+     * acknowledged in time
+     */
+    @Value
+    class PutTimeoutPacket implements ApplicationPacket {
+        long request;
+    }
+
+    /**
+     * Write sent by the coordinator of a put to the other nodes of the preference list of the key
+     */
+    @Value
+    class ReplicationPacket implements ApplicationPacket {
+        int coordinator;
+        long operation;
+        Object key;
+        Versioned value;
+    }
+
+    /**
+     * Acknowledgment of a {@link ReplicationPacket}, sent back to the coordinator
+     */
+    @Value
+    class ReplicationAckPacket implements ApplicationPacket {
+        long operation;
+    }
+
+    /**
+     * Read sent by the coordinator of a get to the other nodes of the preference list of the key
+     */
+    @Value
+    class ReadPacket implements ApplicationPacket {
+        int coordinator;
+        long operation;
+        Object key;
+    }
+
+    /**
+     * Answer to a {@link ReadPacket}, sent back to the coordinator
+     */
     @Value
-    class GetPacket implements ApplicationPacket {
-        UUID sender;
+    class ReadResponsePacket implements ApplicationPacket {
+        long operation;
+        Versioned value;
+    }
+
+    @Value
+    class GetPacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
         Object key;
+
+        public GetPacket(int senderAddress, NodeId sender, NodeId target, long request, Object key) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.key = key;
+        }
     }
 
     @Value
     class GetResponsePacket implements ApplicationPacket, RoutablePacket {
+        /**
+         * Value of {@link #getLease()} when the client may not cache the value
+         */
+        public static final long NO_LEASE = 0;
+
         int senderAddress;
-        UUID sender;
-        UUID target;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
         Object key;
         Object value;
+
+        /**
+         * Simulation time until which the client may serve the value from its cache, unless the owner invalidates it
+         */
+        long lease;
+
+        public GetResponsePacket(int senderAddress, NodeId sender, NodeId target, long request, Object key,
+                                 Object value) {
+            this(senderAddress, sender, target, request, key, value, NO_LEASE);
+        }
+
+        public GetResponsePacket(int senderAddress, NodeId sender, NodeId target, long request, Object key,
+                                 Object value, long lease) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.key = key;
+            this.value = value;
+            this.lease = lease;
+        }
+    }
+
+    /**
+     * Scheduled by a client when it sends a get, fired if the attempt has not been answered in time
+     */
+    @Value
+    class GetTimeoutPacket implements ApplicationPacket {
+        long request;
+        int attempt;
+    }
+
+    /**
+     * Batch of gets of keys owned by the same node, routed to it as a single packet
+     */
+    @Value
+    class MultiGetPacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
+        List<Object> keys;
+
+        public MultiGetPacket(int senderAddress, NodeId sender, NodeId target, long request, List<Object> keys) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Answer of the owner to a {@link MultiGetPacket} once the read quorum of every key is reached, missing keys are
+     * left out of the values
+     */
+    @Value
+    class MultiGetResponsePacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
+        Map<Object, Object> values;
+
+        public MultiGetResponsePacket(int senderAddress, NodeId sender, NodeId target, long request,
+                                      Map<Object, Object> values) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Batch of puts of keys owned by the same node, routed to it as a single packet and acknowledged by a single
+     * {@link PutResponsePacket}
+     */
+    @Value
+    class MultiPutPacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
+        Map<Object, Object> entries;
+
+        public MultiPutPacket(int senderAddress, NodeId sender, NodeId target, long request,
+                              Map<Object, Object> entries) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Reads of several keys, sent by the coordinator of a batch of gets to another node of their preference lists
+     */
+    @Value
+    class BatchReadPacket implements ApplicationPacket {
+        int coordinator;
+        long operation;
+        List<Object> keys;
+    }
+
+    /**
+     * Answer to a {@link BatchReadPacket}: the version of each key, null for the keys the node does not hold
+     */
+    @Value
+    class BatchReadResponsePacket implements ApplicationPacket {
+        long operation;
+        Map<Object, Versioned> values;
+    }
+
+    /**
+     * Writes of several keys, sent by the coordinator of a batch of puts to another node of their preference lists
+     */
+    @Value
+    class BatchReplicationPacket implements ApplicationPacket {
+        int coordinator;
+        long operation;
+        Map<Object, Versioned> entries;
+    }
+
+    /**
+     * Acknowledgment of a {@link BatchReplicationPacket}, sent back to the coordinator
+     */
+    @Value
+    class BatchReplicationAckPacket implements ApplicationPacket {
+        int address;
+        long operation;
+    }
+
+    /**
+     * Scheduled by the coordinator of an operation, fired if the quorum has not been reached in time
+     */
+    @Value
+    class QuorumTimeoutPacket implements ApplicationPacket {
+        long operation;
+    }
+
+    /**
+     * Routed by the coordinator of an operation to its client when the quorum has not been reached in time
+     */
+    @Value
+    class OperationFailedPacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
+        String reason;
+
+        public OperationFailedPacket(int senderAddress, NodeId sender, NodeId target, long request, String reason) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Sent by a node that joined the ring to the nodes following its virtual nodes, asking for the keys it now holds
+     */
+    @Value
+    class KeyRangeRequestPacket implements ApplicationPacket {
+        int address;
+    }
+
+    /**
+     * A batch of keys handed over to another node, after it joined the ring or because we are leaving it
+     */
+    @Value
+    class KeyTransferPacket implements ApplicationPacket {
+        Map<Object, Versioned> entries;
+    }
+
+    /**
+     * Keys a node stored for the first time during an event, sent to the ring neighbors holding its key summary so they
+     * do not report these keys missing until its next summary
+     */
+    @Value
+    class SummaryUpdatePacket implements ApplicationPacket {
+        int address;
+
+        /**
+         * Id of the update, {@link #NO_ACK} if the node does not wait for its neighbors to acknowledge it
+         */
+        long update;
+
+        /**
+         * Simulation time of the writes
+         */
+        long time;
+
+        Set<Object> keys;
+
+        public static final long NO_ACK = -1;
+    }
+
+    @Value
+    class SummaryUpdateAckPacket implements ApplicationPacket {
+        long update;
+    }
+
+    /**
+     * Sent by the owner of a hot key to its additional replicas, when the key becomes hot and on each put
+     */
+    @Value
+    class HotReplicaPacket implements ApplicationPacket {
+        Object key;
+        Versioned value;
+    }
+
+    /**
+     * Sent by the owner of a key that cooled down to its additional replicas
+     */
+    @Value
+    class DropHotReplicaPacket implements ApplicationPacket {
+        Object key;
+    }
+
+    /**
+     * Sent by the owner of a key to the clients holding a lease on it when the key is written
+     */
+    @Value
+    class InvalidateLeasePacket implements ApplicationPacket {
+        Object key;
+    }
+
+    /**
+     * Timer sent by a node to itself to periodically check the rate of the keys it owns
+     */
+    class HotKeysTimerPacket implements ApplicationPacket {}
+
+    /**
+     * Hashes of some nodes of the Merkle tree of the keys held by both the sender and the receiver, sent during an
+     * anti-entropy exchange. The receiver compares them to its own tree and answers with the hashes of the children of
+     * the nodes that differ, or with its entries once the differing nodes are leaves.
+     */
+    @Value
+    class MerkleHashesPacket implements ApplicationPacket {
+        int address;
+        int[] indexes;
+        long[] hashes;
+    }
+
+    /**
+     * Entries of the sender in some subtrees of the Merkle tree of an anti-entropy exchange. Unless it is itself a
+     * reply, the receiver answers with its own entries in these subtrees that the sender misses or holds stale.
+     */
+    @Value
+    class MerkleEntriesPacket implements ApplicationPacket {
+        int address;
+        int[] subtrees;
+        Map<Object, Versioned> entries;
+        boolean reply;
+    }
+
+    /**
+     * Timer sent by a node to itself to periodically start an anti-entropy exchange with one of its neighbors
+     */
+    class AntiEntropyTimerPacket implements ApplicationPacket {}
+
+    /**
+     * Timer sent by a node to itself at each tick of its timer wheel, to drop the entries that expired
+     */
+    class ExpiryTimerPacket implements ApplicationPacket {}
+
+    /**
+     * Scan of the keys of {@code [from, to)} routed to the owner of the segment of the ring starting at {@code start},
+     * which answers the client with the entries of its segment then forwards the scan to the owner of the next one.
+     * The sender stays the client along the whole scan.
+     */
+    @Value
+    class ScanPacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
+
+        /**
+         * Index of the segment in the scan, so the client hands the entries over in order
+         */
+        int segment;
+        Object from;
+        Object to;
+        long startHigh;
+        long startLow;
+
+        /**
+         * Number of entries the scan may still return
+         */
+        int limit;
+
+        public ScanPacket(int senderAddress, NodeId sender, NodeId target, long request, int segment, Object from,
+                          Object to, NodeId start, int limit) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.segment = segment;
+            this.from = from;
+            this.to = to;
+            this.startHigh = start.getHigh();
+            this.startLow = start.getLow();
+            this.limit = limit;
+        }
+
+        /**
+         * @return the first position of the ring covered by the segment
+         */
+        public NodeId getStart() {
+            return new NodeId(this.startHigh, this.startLow);
+        }
+    }
+
+    /**
+     * Entries of a segment of a scan, in key order, sent by its owner to the client
+     */
+    @Value
+    class ScanResponsePacket implements ApplicationPacket, RoutablePacket {
+        int senderAddress;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
+        long request;
+        int segment;
+        Map<Object, Object> entries;
+
+        /**
+         * Whether the scan ends with this segment, as it reached the end of the range, its limit or the end of the ring
+         */
+        boolean last;
+
+        public ScanResponsePacket(int senderAddress, NodeId sender, NodeId target, long request, int segment,
+                                  Map<Object, Object> entries, boolean last) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.request = request;
+            this.segment = segment;
+            this.entries = entries;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Scheduled by a client each time it waits for the next segment of a scan, fired if the segment has not been
+     * received in time
+     */
+    @Value
+    class ScanTimeoutPacket implements ApplicationPacket {
+        long request;
+        int segment;
     }
 }
@@ -1,14 +1,25 @@
 package project.protocol;
 
 import lombok.Value;
-
-import java.util.UUID;
+import project.KeySummary;
+import project.NodeId;
 
 public interface Packet {
     @Value
     class DiscoveryPacket implements Packet {
         int address;
-        UUID nodeId;
+        long nodeIdHigh;
+        long nodeIdLow;
+
+        public DiscoveryPacket(int address, NodeId nodeId) {
+            this.address = address;
+            this.nodeIdHigh = nodeId.getHigh();
+            this.nodeIdLow = nodeId.getLow();
+        }
+
+        public NodeId getNodeId() {
+            return new NodeId(this.nodeIdHigh, this.nodeIdLow);
+        }
     }
 
     @Value
@@ -25,4 +36,144 @@ public interface Packet {
         boolean left;
         int address;
     }
+
+    /**
+     * Lookup of the node following a finger start on the ring, forwarded until it reaches the predecessor of the key
+     */
+    @Value
+    class FingerLookupPacket implements Packet {
+        int address;
+        int index;
+        long keyHigh;
+        long keyLow;
+
+        public FingerLookupPacket(int address, int index, NodeId key) {
+            this.address = address;
+            this.index = index;
+            this.keyHigh = key.getHigh();
+            this.keyLow = key.getLow();
+        }
+
+        public NodeId getKey() {
+            return new NodeId(this.keyHigh, this.keyLow);
+        }
+    }
+
+    /**
+     * Answer to a {@link FingerLookupPacket}, directly sent back to the node that issued the lookup. Along with the node
+     * following the key, it carries the successors of this node so the finger can be chosen by latency among them.
+     */
+    @Value
+    class FingerPacket implements Packet {
+        int index;
+        int[] addresses;
+    }
+
+    /**
+     * Timer sent by a node to itself to periodically refresh its fingers
+     */
+    class FixFingersPacket implements Packet {}
+
+    /**
+     * Heartbeat request of the failure detector, sent to a watched node that has been silent for a cycle
+     */
+    @Value
+    class PingPacket implements Packet {
+        int address;
+    }
+
+    /**
+     * Answer to a {@link PingPacket}
+     */
+    @Value
+    class PongPacket implements Packet {
+        int address;
+    }
+
+    /**
+     * Delivered to the failure detector of a node along with each packet it receives from another node, as the
+     * network layer tells the receiver which node sent a packet
+     */
+    @Value
+    class TrafficPacket implements Packet {
+        int address;
+    }
+
+    /**
+     * Timer sent by a node to itself to periodically check its right node, fixing the neighbors of nodes that joined
+     * concurrently
+     */
+    class StabilizePacket implements Packet {}
+
+    /**
+     * Sent by a node to its right node to learn its left node
+     */
+    @Value
+    class PredecessorRequestPacket implements Packet {
+        int address;
+    }
+
+    /**
+     * Answer to a {@link PredecessorRequestPacket}, carrying the address of the left node of the sender, the
+     * addresses of the nodes following the sender and the summary of the keys of the sender, if any
+     */
+    @Value
+    class PredecessorPacket implements Packet {
+        int address;
+        int[] successors;
+        KeySummary summary;
+    }
+
+    /**
+     * Sent by a node to its right node, which adopts it as left node if it is closer than its current one. It carries
+     * the addresses of the nodes preceding the sender and the summary of the keys of the sender, if any.
+     */
+    @Value
+    class NotifyPacket implements Packet {
+        int address;
+        int[] predecessors;
+        KeySummary summary;
+    }
+
+    /**
+     * Kademlia request for the nodes the receiver knows that are the closest to a target id
+     */
+    @Value
+    class FindNodePacket implements Packet {
+        int address;
+        long lookup;
+        long targetHigh;
+        long targetLow;
+
+        public FindNodePacket(int address, long lookup, NodeId target) {
+            this.address = address;
+            this.lookup = lookup;
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+        }
+
+        public NodeId getTarget() {
+            return new NodeId(this.targetHigh, this.targetLow);
+        }
+    }
+
+    /**
+     * Answer to a {@link FindNodePacket}, carrying the addresses of the closest nodes known by the sender
+     */
+    @Value
+    class FoundNodesPacket implements Packet {
+        int address;
+        long lookup;
+        int[] nodes;
+    }
+
+    /**
+     * Timer sent by a node to itself when it sends a {@link FindNodePacket}, the request is given up if it is still
+     * pending when the timer fires
+     */
+    @Value
+    class FindNodeTimeoutPacket implements Packet {
+        long lookup;
+        int address;
+    }
 }
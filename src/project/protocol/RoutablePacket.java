@@ -2,28 +2,65 @@ package project.protocol;
 
 
 import lombok.Value;
+import project.NodeId;
 
-import java.util.UUID;
-
+/**
+ * A packet routed on the ring up to the node with the target id. Ids are stored as raw longs so the routing does not
+ * need to allocate any object, {@link #getSender()} and {@link #getTarget()} are only conveniences.
+ */
 public interface RoutablePacket extends Packet {
     int getSenderAddress();
-    UUID getSender();
-    UUID getTarget();
+    long getSenderHigh();
+    long getSenderLow();
+    long getTargetHigh();
+    long getTargetLow();
+
+    default NodeId getSender() {
+        return new NodeId(this.getSenderHigh(), this.getSenderLow());
+    }
+
+    default NodeId getTarget() {
+        return new NodeId(this.getTargetHigh(), this.getTargetLow());
+    }
 
     @Value
     class MessagePacket implements RoutablePacket {
         int senderAddress;
-        UUID sender;
-        UUID target;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
         String message;
+
+        public MessagePacket(int senderAddress, NodeId sender, NodeId target, String message) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.message = message;
+        }
     }
 
     @Value
     class UndeliverableRoutablePacket implements RoutablePacket {
         int senderAddress;
-        UUID sender;
-        UUID target;
+        long senderHigh;
+        long senderLow;
+        long targetHigh;
+        long targetLow;
         String reason;
         RoutablePacket originalPacket;
+
+        public UndeliverableRoutablePacket(int senderAddress, NodeId sender, NodeId target, String reason,
+                                           RoutablePacket originalPacket) {
+            this.senderAddress = senderAddress;
+            this.senderHigh = sender.getHigh();
+            this.senderLow = sender.getLow();
+            this.targetHigh = target.getHigh();
+            this.targetLow = target.getLow();
+            this.reason = reason;
+            this.originalPacket = originalPacket;
+        }
     }
 }